@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst.log4j2;
+
+import co.paralleluniverse.xst.ExtendedStackTrace;
+import co.paralleluniverse.xst.FrameFilter;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.pattern.ConverterKeys;
+import org.apache.logging.log4j.core.pattern.PatternConverter;
+import org.apache.logging.log4j.core.pattern.ThrowablePatternConverter;
+
+/**
+ * A Log4j 2 pattern converter that renders the logged exception as an {@link ExtendedStackTrace}, showing the signature of each frame's method and its bytecode index.
+ * The trace is appended directly to the layout's buffer.
+ * <p>
+ * The converter is selected with {@code %xstEx} (or {@code %xstThrowable}, {@code %xstException}) in the pattern, and takes the same options as {@code %ex}.
+ * Frames of the packages named with the {@code filters} option are left out, e.g. {@code %xstEx{filters(java.lang.reflect, sun.reflect)}}.
+ * When the number of lines is limited, the trace is rendered by Log4j's own converter.
+ * <p>
+ * The package of this class needs to be listed in the configuration's {@code packages} attribute unless the plugin is discovered by Log4j's annotation processor.
+ *
+ * @author pron
+ */
+@Plugin(name = "ExtendedStackTracePatternConverter", category = PatternConverter.CATEGORY)
+@ConverterKeys({"xstEx", "xstThrowable", "xstException"})
+public final class ExtendedThrowablePatternConverter extends ThrowablePatternConverter {
+    private final FrameFilter filter;
+
+    private ExtendedThrowablePatternConverter(String[] options) {
+        super("ExtendedStackTrace", "throwable", options);
+        this.filter = this.options.hasPackages() ? FrameFilter.packages(this.options.getPackages()) : null;
+    }
+
+    /**
+     * Creates a new instance of the converter.
+     *
+     * @param options the pattern options; may be {@code null}
+     */
+    public static ExtendedThrowablePatternConverter newInstance(String[] options) {
+        return new ExtendedThrowablePatternConverter(options);
+    }
+
+    @Override
+    public void format(LogEvent event, StringBuilder toAppendTo) {
+        final Throwable t = event.getThrown();
+        if (t == null || !options.anyLines())
+            return;
+        if (!options.allLines()) {
+            super.format(event, toAppendTo);
+            return;
+        }
+        final int len = toAppendTo.length();
+        if (len > 0 && !Character.isWhitespace(toAppendTo.charAt(len - 1)))
+            toAppendTo.append(' ');
+        ExtendedStackTrace.of(t).printStackTrace(toAppendTo, filter, true);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst.logback;
+
+import ch.qos.logback.classic.pattern.ThrowableHandlingConverter;
+import ch.qos.logback.classic.pattern.ThrowableProxyConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.CoreConstants;
+import co.paralleluniverse.xst.ExtendedStackTrace;
+import co.paralleluniverse.xst.FrameFilter;
+import java.util.List;
+
+/**
+ * A Logback converter that renders the logged exception as an {@link ExtendedStackTrace}, showing the signature of each frame's method and its bytecode index.
+ * <p>
+ * To use it, declare a conversion word in the Logback configuration, and use it in the pattern; the converter's options, if any,
+ * name packages whose frames are to be left out:
+ * <pre>{@code
+ * <conversionRule conversionWord="xEx" converterClass="co.paralleluniverse.xst.logback.ExtendedThrowableConverter" />
+ * ...
+ * <pattern>%d %-5level %logger - %msg%n%xEx{java.lang.reflect, sun.reflect}</pattern>
+ * }</pre>
+ * Exceptions whose proxies do not carry the original {@code Throwable} (e.g. events that have been deserialized) are rendered by Logback's own converter.
+ *
+ * @author pron
+ */
+public class ExtendedThrowableConverter extends ThrowableHandlingConverter {
+    private static final int INITIAL_BUFFER_CAPACITY = 1024;
+    private static final int MAX_BUFFER_CAPACITY = 64 * 1024; // larger buffers aren't retained
+    /*
+     * Logback's FormattingConverter.write is final, so a converter can only return a String.
+     * The trace is rendered into a reused buffer, so the returned String is the only allocation.
+     */
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(INITIAL_BUFFER_CAPACITY);
+        }
+    };
+
+    private FrameFilter filter;
+    private ThrowableProxyConverter fallback;
+
+    @Override
+    public void start() {
+        final List<String> packages = getOptionList();
+        this.filter = packages != null && !packages.isEmpty() ? FrameFilter.packages(packages) : null;
+        this.fallback = new ThrowableProxyConverter();
+        fallback.setContext(getContext());
+        fallback.start();
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        fallback.stop();
+        super.stop();
+    }
+
+    @Override
+    public String convert(ILoggingEvent event) {
+        final IThrowableProxy tp = event.getThrowableProxy();
+        if (tp == null)
+            return CoreConstants.EMPTY_STRING;
+        if (!(tp instanceof ThrowableProxy))
+            return fallback.convert(event);
+
+        final StringBuilder sb = BUFFER.get();
+        try {
+            ExtendedStackTrace.of(((ThrowableProxy) tp).getThrowable()).printStackTrace(sb, filter, true);
+            return sb.toString();
+        } finally {
+            if (sb.capacity() > MAX_BUFFER_CAPACITY)
+                BUFFER.remove();
+            else
+                sb.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emitted when the elements of an extended stack trace are resolved.
+ *
+ * @author pron
+ */
+@Name("co.paralleluniverse.xst.ExceptionResolved")
+@Label("Exception Resolved")
+@Description("The elements of an extended stack trace have been resolved")
+@Category("Extended Stack Trace")
+@StackTrace(true)
+class ExceptionResolvedEvent extends Event {
+    @Label("Backend")
+    String backend;
+
+    @Label("Depth")
+    int depth;
+
+    @Label("Resolution Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long resolutionLatency;
+}
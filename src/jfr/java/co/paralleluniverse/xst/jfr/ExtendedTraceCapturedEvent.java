@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emitted when an extended stack trace is captured.
+ *
+ * @author pron
+ */
+@Name("co.paralleluniverse.xst.ExtendedTraceCaptured")
+@Label("Extended Trace Captured")
+@Description("An extended stack trace has been captured with ExtendedStackTrace.of or ExtendedStackTrace.here")
+@Category("Extended Stack Trace")
+@StackTrace(true)
+class ExtendedTraceCapturedEvent extends Event {
+    @Label("Backend")
+    String backend;
+
+    @Label("Capture Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long captureLatency;
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst.jfr;
+
+import co.paralleluniverse.xst.ExtendedStackTrace;
+import co.paralleluniverse.xst.ExtendedStackTraceListener;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+
+/**
+ * Emits JDK Flight Recorder events for the capture and resolution of extended stack traces.
+ * <p>
+ * Once {@link #install() installed}, the listener is only registered with {@link ExtendedStackTrace} while a recording
+ * enables at least one of its events, so when the events are disabled they cost nothing.
+ *
+ * @author pron
+ */
+public final class JfrExtendedStackTraceListener implements ExtendedStackTraceListener {
+    private static final JfrExtendedStackTraceListener INSTANCE = new JfrExtendedStackTraceListener();
+    private static final EventType CAPTURED = EventType.getEventType(ExtendedTraceCapturedEvent.class);
+    private static final EventType RESOLVED = EventType.getEventType(ExceptionResolvedEvent.class);
+    private static boolean installed;
+
+    /**
+     * Registers the JFR events, and starts emitting them whenever a recording enables them.
+     */
+    public static synchronized void install() {
+        if (installed)
+            return;
+        installed = true;
+        FlightRecorder.register(ExtendedTraceCapturedEvent.class);
+        FlightRecorder.register(ExceptionResolvedEvent.class);
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recordingStateChanged(Recording recording) {
+                update();
+            }
+        });
+        update();
+    }
+
+    private static synchronized void update() {
+        final boolean enabled = CAPTURED.isEnabled() || RESOLVED.isEnabled();
+        if (enabled)
+            ExtendedStackTrace.setListener(INSTANCE);
+        else if (ExtendedStackTrace.getListener() == INSTANCE)
+            ExtendedStackTrace.setListener(null);
+    }
+
+    private JfrExtendedStackTraceListener() {
+    }
+
+    @Override
+    public void captured(ExtendedStackTrace st, long nanos) {
+        final ExtendedTraceCapturedEvent event = new ExtendedTraceCapturedEvent();
+        if (event.shouldCommit()) {
+            event.backend = backend(st);
+            event.captureLatency = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void resolved(ExtendedStackTrace st, int depth, long nanos) {
+        final ExceptionResolvedEvent event = new ExceptionResolvedEvent();
+        if (event.shouldCommit()) {
+            event.backend = backend(st);
+            event.depth = depth;
+            event.resolutionLatency = nanos;
+            event.commit();
+        }
+    }
+
+    private static String backend(ExtendedStackTrace st) {
+        final String name = st.getClass().getSimpleName();
+        final String prefix = ExtendedStackTrace.class.getSimpleName();
+        if (name.equals(prefix))
+            return "Basic";
+        return name.startsWith(prefix) ? name.substring(prefix.length()) : name;
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Prints stack traces on a background thread, so that threads reporting errors do not contend on the output stream.
+ * <p>
+ * {@link #print(ExtendedStackTrace) print} only hands the stack trace -- which, on HotSpot, is still unresolved -- to a bounded queue,
+ * without taking a lock; the printer's thread then resolves and formats the queued stack traces in batches,
+ * and writes them to a {@code WritableByteChannel} through a single buffer.
+ * When the queue is full, the printer's {@link OverflowPolicy} decides what happens to new stack traces.
+ * <p>
+ * Every stack trace that {@code print} has queued is written, even if the printer is {@link #close() closed} concurrently; unless the printer was created with
+ * {@code flushOnShutdown} set to {@code false}, it is closed when the JVM shuts down.
+ * <pre>{@code
+ * private static final AsyncStackTracePrinter ERRORS = AsyncStackTracePrinter.toStandardError(1024, AsyncStackTracePrinter.OverflowPolicy.SUMMARIZE);
+ * ...
+ * } catch (Exception e) {
+ *     ERRORS.print(e);
+ * }
+ * }</pre>
+ *
+ * @author pron
+ */
+public class AsyncStackTracePrinter implements Closeable {
+    /**
+     * What to do with a stack trace printed while the queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the stack trace; discarded stack traces are only counted.
+         */
+        DROP,
+        /**
+         * Discard the stack trace, but print a summary of the discarded stack traces -- the number of each distinct one --
+         * once the queue has room.
+         */
+        SUMMARIZE,
+        /**
+         * Wait until the queue has room.
+         */
+        BLOCK
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_SUMMARIES = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final WritableByteChannel out;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<>(); // ExtendedStackTrace or CountDownLatch (a flush marker)
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger printing = new AtomicInteger(); // the number of print calls that may still queue a stack trace
+    private final AtomicLong dropped = new AtomicLong();
+    private final ConcurrentMap<Long, Summary> summaries = new ConcurrentHashMap<>();
+    private final AtomicLong overflowingSummaries = new AtomicLong(); // dropped stack traces not counted in any summary
+    private final Thread thread;
+    private final Thread shutdownHook;
+    private volatile boolean idle;
+    private volatile boolean closed;
+
+    // used by the printer's thread only
+    private final StringBuilder sb = new StringBuilder();
+    private final CharsetEncoder encoder;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Returns a printer writing to {@link System#err}.
+     *
+     * @param capacity the maximum number of stack traces waiting to be printed
+     * @param policy   what to do with stack traces printed while {@code capacity} stack traces are waiting
+     */
+    public static AsyncStackTracePrinter toStandardError(int capacity, OverflowPolicy policy) {
+        return new AsyncStackTracePrinter(Channels.newChannel(System.err), Charset.defaultCharset(), capacity, policy, true);
+    }
+
+    /**
+     * Creates a new printer, and starts its thread.
+     *
+     * @param out             the channel to write to; it is not closed when the printer is closed
+     * @param charset         the charset of the output
+     * @param capacity        the maximum number of stack traces waiting to be printed
+     * @param policy          what to do with stack traces printed while {@code capacity} stack traces are waiting
+     * @param flushOnShutdown whether to close the printer, writing all waiting stack traces, when the JVM shuts down
+     */
+    public AsyncStackTracePrinter(WritableByteChannel out, Charset charset, int capacity, OverflowPolicy policy, boolean flushOnShutdown) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        if (policy == null)
+            throw new NullPointerException("policy is null");
+        this.out = out;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                AsyncStackTracePrinter.this.run();
+            }
+        }, "xst-async-printer-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+        if (flushOnShutdown) {
+            this.shutdownHook = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    close();
+                }
+            }, thread.getName() + "-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        } else
+            this.shutdownHook = null;
+    }
+
+    /**
+     * Queues the stack trace of the given {@code Throwable} for printing.
+     *
+     * @return {@code true} if the stack trace has been queued; {@code false} if it has been discarded
+     */
+    public boolean print(Throwable t) {
+        return print(ExtendedStackTrace.of(t));
+    }
+
+    /**
+     * Queues the given stack trace for printing. The stack trace is resolved on the printer's thread.
+     *
+     * @return {@code true} if the stack trace has been queued; {@code false} if it has been discarded
+     */
+    public boolean print(ExtendedStackTrace st) {
+        if (st == null)
+            throw new NullPointerException("stack trace is null");
+        printing.incrementAndGet(); // before reading closed, so that the printer's thread waits for the stack trace to be queued
+        try {
+            while (!closed && thread.isAlive()) { // a printer whose thread has died is as good as closed
+                if (reserve()) {
+                    enqueue(st);
+                    return true;
+                }
+                if (policy != OverflowPolicy.BLOCK) {
+                    drop(st);
+                    return false;
+                }
+                LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+            }
+        } finally {
+            printing.decrementAndGet();
+        }
+        drop(st);
+        return false;
+    }
+
+    private boolean reserve() {
+        for (;;) {
+            final int n = size.get();
+            if (n >= capacity)
+                return false;
+            if (size.compareAndSet(n, n + 1))
+                return true;
+        }
+    }
+
+    private void enqueue(Object x) {
+        queue.offer(x);
+        if (idle)
+            LockSupport.unpark(thread);
+    }
+
+    private void drop(ExtendedStackTrace st) {
+        dropped.incrementAndGet();
+        if (policy == OverflowPolicy.SUMMARIZE) {
+            final long fingerprint = st.fingerprint();
+            Summary s = summaries.get(fingerprint);
+            if (s == null && summaries.size() < MAX_SUMMARIES) {
+                final Summary s1 = summaries.putIfAbsent(fingerprint, s = new Summary(st.toString()));
+                if (s1 != null)
+                    s = s1;
+            }
+            if (s != null)
+                s.count.incrementAndGet();
+            else
+                overflowingSummaries.incrementAndGet();
+        }
+    }
+
+    /**
+     * The number of stack traces discarded since the printer was created.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Waits until all stack traces queued before this call have been written.
+     */
+    public void flush() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        enqueue(latch);
+        while (!latch.await(IDLE_PARK_NANOS, TimeUnit.NANOSECONDS)) {
+            if (!thread.isAlive())
+                return; // closed; everything queued before closing has been written
+        }
+    }
+
+    /**
+     * Writes all queued stack traces, and stops the printer's thread. Stack traces printed after the printer is closed are discarded.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        LockSupport.unpark(thread);
+        boolean interrupted = false;
+        while (thread.isAlive() && Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // shutting down
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void run() {
+        for (;;) {
+            final boolean done = closed && printing.get() == 0; // read before draining, so nothing queued before close is missed
+            boolean wrote = false;
+            for (Object x; (x = queue.poll()) != null;) {
+                if (x instanceof CountDownLatch) {
+                    flushBuffer();
+                    ((CountDownLatch) x).countDown();
+                    continue;
+                }
+                size.decrementAndGet();
+                format((ExtendedStackTrace) x);
+                wrote = true;
+            }
+            if (policy == OverflowPolicy.SUMMARIZE)
+                wrote |= formatSummaries();
+            if (wrote)
+                flushBuffer();
+            if (done)
+                break;
+
+            idle = true;
+            if (queue.isEmpty() && !closed)
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            idle = false;
+        }
+    }
+
+    private void format(ExtendedStackTrace st) {
+        try {
+            st.printStackTrace(sb);
+        } catch (Throwable e) {
+            sb.append("Failed to print stack trace of ").append(st).append(": ").append(e).append(System.lineSeparator());
+        }
+        write();
+    }
+
+    private boolean formatSummaries() {
+        boolean any = false;
+        for (Map.Entry<Long, Summary> e : summaries.entrySet()) {
+            final long count = e.getValue().count.getAndSet(0);
+            if (count > 0) {
+                if (!any)
+                    sb.append("Stack traces dropped because the print queue was full:").append(System.lineSeparator());
+                any = true;
+                sb.append('\t').append(count).append(" x ").append(e.getValue().header).append(System.lineSeparator());
+            }
+        }
+        final long others = overflowingSummaries.getAndSet(0);
+        if (others > 0) {
+            if (!any)
+                sb.append("Stack traces dropped because the print queue was full:").append(System.lineSeparator());
+            any = true;
+            sb.append('\t').append(others).append(" x others").append(System.lineSeparator());
+        }
+        if (any)
+            write();
+        return any;
+    }
+
+    /**
+     * Encodes the formatted text into the buffer, writing out the buffer whenever it fills up.
+     */
+    private void write() {
+        final CharBuffer chars = CharBuffer.wrap(sb);
+        while (encoder.encode(chars, buffer, true).isOverflow())
+            flushBuffer();
+        while (encoder.flush(buffer).isOverflow())
+            flushBuffer();
+        encoder.reset();
+        sb.setLength(0);
+        if (sb.capacity() > BUFFER_SIZE)
+            sb.trimToSize();
+    }
+
+    private void flushBuffer() {
+        ((Buffer) buffer).flip(); // as a Buffer, so that the call links on JDK 8 when compiled on a later JDK
+        try {
+            while (buffer.hasRemaining())
+                out.write(buffer);
+        } catch (IOException e) {
+            // nowhere to report it
+        } finally {
+            ((Buffer) buffer).clear();
+        }
+    }
+
+    private static final class Summary {
+        final String header;
+        final AtomicLong count = new AtomicLong();
+
+        Summary(String header) {
+            this.header = header;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Stitches the stack traces captured in asynchronous tasks to the stack traces of the points where the tasks were submitted.
+ * <p>
+ * A task {@link #wrap(Runnable) wrapped} by this class -- or submitted to an executor that is {@link #wrap(Executor) wrapped} --
+ * captures the stack at its submission. While the task runs, {@link #here()} and {@link #of(Throwable)} return stack traces
+ * that are linked to the submission's, which is, in turn, linked to the submission of the task that submitted it, if that task was wrapped too.
+ * Printing such a stack trace prints the whole causal chain, each submission under a {@code "Submitted: "} caption,
+ * with the frames it has in common with the trace above it elided.
+ * {@code CompletableFuture}s are stitched by passing a wrapped executor to their {@code *Async} methods.
+ * <p>
+ * Stitching happens inside the task: an exception should be passed to {@link #of(Throwable) of} where it is caught within the task, as below.
+ * An exception that escapes the task is caught by the executor or the future running it, outside the task, and so it is not stitched when
+ * retrieved from the future.
+ * <p>
+ * The submission stack traces are captured unresolved. On HotSpot, they are also shared: all pending tasks submitted from the same stack,
+ * with the same causal chain, link to a single submission stack trace, so long chains of tasks do not multiply the memory they retain.
+ * Chains longer than {@link #MAX_HOPS} submissions are cut, and start anew.
+ * <pre>{@code
+ * Executor executor = AsyncStackTraces.wrap(Executors.newFixedThreadPool(8));
+ * ...
+ * executor.execute(new Runnable() {
+ *     public void run() {
+ *         try {
+ *             ...
+ *         } catch (Exception e) {
+ *             AsyncStackTraces.of(e).printStackTrace();
+ *         }
+ *     }
+ * });
+ * }</pre>
+ *
+ * @author pron
+ */
+public final class AsyncStackTraces {
+    /**
+     * The maximum number of submissions in a causal chain.
+     */
+    public static final int MAX_HOPS = 32;
+    private static final int MAX_SHARED_SUBMISSIONS = 4096;
+    private static final int SUBMISSION_FRAMES = 2; // submission() and its caller
+    private static final ThreadLocal<ExtendedStackTrace> submission = new ThreadLocal<>();
+    private static final ConcurrentMap<Long, SharedSubmission> submissions = new ConcurrentHashMap<>(); // by fingerprint
+    private static final ReferenceQueue<ExtendedStackTrace> unused = new ReferenceQueue<>();
+
+    /**
+     * Returns an executor that stitches the tasks submitted to it.
+     */
+    public static Executor wrap(final Executor executor) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executor.execute(wrap(command, submission()));
+            }
+
+            @Override
+            public String toString() {
+                return "AsyncStackTraces.wrap(" + executor + ")";
+            }
+        };
+    }
+
+    /**
+     * Captures the stack of the current execution point as the submission of the given task.
+     * Must be called where the task is submitted.
+     */
+    public static Runnable wrap(Runnable task) {
+        return wrap(task, submission());
+    }
+
+    private static Runnable wrap(final Runnable task, final ExtendedStackTrace parent) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                final ExtendedStackTrace outer = enter(parent);
+                try {
+                    task.run();
+                } finally {
+                    submission.set(outer);
+                }
+            }
+        };
+    }
+
+    /**
+     * Captures the stack of the current execution point as the submission of the given task.
+     * Must be called where the task is submitted.
+     */
+    public static <V> Callable<V> wrap(final Callable<V> task) {
+        final ExtendedStackTrace parent = submission();
+        return new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                final ExtendedStackTrace outer = enter(parent);
+                try {
+                    return task.call();
+                } finally {
+                    submission.set(outer);
+                }
+            }
+        };
+    }
+
+    /**
+     * Captures a stack trace for the current execution point, stitched to the submission of the running task, if any.
+     */
+    public static ExtendedStackTrace here() {
+        return stitch(ExtendedStackTrace.here(), submission.get());
+    }
+
+    /**
+     * Returns the extended stack trace of the given {@code Throwable}, stitched -- along with its causes and suppressed exceptions --
+     * to the submission of the task running in the current thread, if any.
+     */
+    public static ExtendedStackTrace of(Throwable t) {
+        if (t == null)
+            return null;
+        return stitch(ExtendedStackTrace.of(t), submission.get());
+    }
+
+    private static ExtendedStackTrace stitch(ExtendedStackTrace st, ExtendedStackTrace parent) {
+        return parent != null ? new StitchedStackTrace(st, parent) : st;
+    }
+
+    private static ExtendedStackTrace enter(ExtendedStackTrace parent) {
+        final ExtendedStackTrace outer = submission.get();
+        submission.set(parent);
+        return outer;
+    }
+
+    /**
+     * Captures the current stack -- less this method and its caller -- as a submission, and returns the shared instance of the submission, if any.
+     * Not private, so that calls from nested classes do not go through a synthetic accessor frame.
+     */
+    static ExtendedStackTrace submission() {
+        ExtendedStackTrace parent = submission.get();
+        if (StitchedStackTrace.hops(parent) >= MAX_HOPS - 1)
+            parent = null;
+        final StitchedStackTrace st = new StitchedStackTrace(ExtendedStackTrace.of(new Submission()), parent, SUBMISSION_FRAMES);
+        if (!ExtendedStackTrace.HOTSPOT)
+            return st; // telling submissions apart would resolve their stack traces
+        expungeUnused();
+        final long fingerprint = st.fingerprint();
+        final SharedSubmission ref = submissions.get(fingerprint);
+        final StitchedStackTrace shared = ref != null ? ref.get() : null;
+        if (shared != null)
+            return isSame(shared, st) ? shared : st; // fingerprints may collide
+        if (ref != null)
+            submissions.replace(fingerprint, ref, new SharedSubmission(fingerprint, st));
+        else if (submissions.size() < MAX_SHARED_SUBMISSIONS)
+            submissions.putIfAbsent(fingerprint, new SharedSubmission(fingerprint, st));
+        return st;
+    }
+
+    private static boolean isSame(StitchedStackTrace a, StitchedStackTrace b) {
+        return a.getAsyncParent() == b.getAsyncParent() // parents are shared, too
+                && ExtendedStackTraceHotSpot.isSameBacktrace(a.t, b.t);
+    }
+
+    private static void expungeUnused() {
+        for (SharedSubmission ref; (ref = (SharedSubmission) unused.poll()) != null;)
+            submissions.remove(ref.fingerprint, ref);
+    }
+
+    /**
+     * A submission, shared for as long as tasks that link to it are pending or running.
+     */
+    private static final class SharedSubmission extends WeakReference<StitchedStackTrace> {
+        final long fingerprint;
+
+        SharedSubmission(long fingerprint, StitchedStackTrace st) {
+            super(st, unused);
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * Records the stack at a task's submission.
+     */
+    private static final class Submission extends Throwable {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public String toString() {
+            return "asynchronous task"; // not the submitting thread, as submissions are shared
+        }
+    }
+
+    private AsyncStackTraces() {
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Captures stack traces for only a sample of the events at a single call site, so that capturing can be left on for frequent events.
+ * Events that are not sampled return the {@link #UNSAMPLED} sentinel, which costs nothing to produce.
+ * <p>
+ * All events are counted, whether they are sampled or not, so each sample can be weighted by {@link #getWeight()} to estimate totals.
+ * <p>
+ * A sampler is meant to be kept in a static field at its call site:
+ * <pre>{@code
+ * private static final CaptureSampler ACQUIRE_SAMPLER = CaptureSampler.everyNth(100);
+ * ...
+ * ExtendedStackTrace st = ACQUIRE_SAMPLER.here();
+ * if (st != CaptureSampler.UNSAMPLED)
+ *     record(st);
+ * }</pre>
+ *
+ * @author pron
+ */
+public abstract class CaptureSampler {
+    /**
+     * Returned in place of a stack trace for events that are not sampled. It has no frames.
+     */
+    public static final ExtendedStackTrace UNSAMPLED = new ExtendedStackTraceDetached("unsampled", null, new ExtendedStackTraceElement[0]);
+
+    /**
+     * Returns a sampler that captures every {@code n}th event.
+     */
+    public static CaptureSampler everyNth(int n) {
+        if (n <= 0)
+            throw new IllegalArgumentException("n must be positive: " + n);
+        return new EveryNth(n);
+    }
+
+    /**
+     * Returns a sampler that captures events as long as the time spent capturing at its site does not exceed the given budget
+     * in each one-second period.
+     * <p>
+     * Only the time spent in this sampler's methods is accounted for. The frames of a captured stack trace are resolved lazily,
+     * when they are first requested (e.g. by {@link ExtendedStackTrace#get()} or when the trace is printed), and the time spent
+     * resolving them is not counted against the budget.
+     *
+     * @param budget the time that may be spent capturing in each second
+     * @param unit   the time unit of {@code budget}
+     */
+    public static CaptureSampler withTimeBudget(long budget, TimeUnit unit) {
+        if (budget < 0)
+            throw new IllegalArgumentException("budget must be non-negative: " + budget);
+        return new TimeBudget(unit.toNanos(budget));
+    }
+
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong samples = new AtomicLong();
+
+    CaptureSampler() {
+    }
+
+    /**
+     * Counts an event, and captures a stack trace for the current execution point if the event is sampled.
+     *
+     * @return the captured stack trace, or {@link #UNSAMPLED} if the event is not sampled
+     */
+    public ExtendedStackTrace here() {
+        final long event = events.getAndIncrement();
+        if (!sample(event))
+            return UNSAMPLED;
+        samples.incrementAndGet();
+        final long start = System.nanoTime();
+        final ExtendedStackTrace st = ExtendedStackTrace.here();
+        spent(System.nanoTime() - start);
+        return st;
+    }
+
+    /**
+     * Counts an event, and returns the stack trace of the given {@code Throwable} if the event is sampled.
+     *
+     * @return the stack trace, or {@link #UNSAMPLED} if the event is not sampled
+     */
+    public ExtendedStackTrace of(Throwable t) {
+        final long event = events.getAndIncrement();
+        if (!sample(event))
+            return UNSAMPLED;
+        samples.incrementAndGet();
+        final long start = System.nanoTime();
+        final ExtendedStackTrace st = ExtendedStackTrace.of(t);
+        spent(System.nanoTime() - start);
+        return st;
+    }
+
+    /**
+     * Counts an event, and captures the stack of the current execution point into the given buffer if the event is sampled.
+     *
+     * @param skip the number of top frames to leave out; if 0, the top frame is the caller of this method
+     * @return whether the event is sampled
+     */
+    boolean captureInto(FrameBuffer buf, int skip) {
+        final long event = events.getAndIncrement();
+        if (!sample(event))
+            return false;
+        samples.incrementAndGet();
+        final long start = System.nanoTime();
+        ExtendedStackTrace.captureInto(buf, skip + 1);
+        spent(System.nanoTime() - start);
+        return true;
+    }
+
+    /**
+     * The number of events counted so far, sampled or not.
+     */
+    public long getEventCount() {
+        return events.get();
+    }
+
+    /**
+     * The number of events sampled so far.
+     */
+    public long getSampleCount() {
+        return samples.get();
+    }
+
+    /**
+     * The number of events each sample stands for, i.e. the ratio of all events to sampled events so far.
+     */
+    public double getWeight() {
+        final long s = samples.get();
+        return s > 0 ? (double) events.get() / s : 0.0;
+    }
+
+    /**
+     * Decides whether the event with the given sequence number is sampled.
+     */
+    abstract boolean sample(long event);
+
+    /**
+     * Accounts for the time spent capturing a sampled event.
+     */
+    void spent(long nanos) {
+    }
+
+    private static final class EveryNth extends CaptureSampler {
+        private final int n;
+
+        EveryNth(int n) {
+            this.n = n;
+        }
+
+        @Override
+        boolean sample(long event) {
+            return event % n == 0;
+        }
+    }
+
+    private static final class TimeBudget extends CaptureSampler {
+        private static final long PERIOD = TimeUnit.SECONDS.toNanos(1);
+        private final long budget;
+        private final AtomicLong periodStart = new AtomicLong(System.nanoTime());
+        private final AtomicLong spent = new AtomicLong();
+
+        TimeBudget(long budget) {
+            this.budget = budget;
+        }
+
+        @Override
+        boolean sample(long event) {
+            final long start = periodStart.get();
+            if (System.nanoTime() - start >= PERIOD && periodStart.compareAndSet(start, System.nanoTime()))
+                spent.set(0);
+            return spent.get() < budget;
+        }
+
+        @Override
+        void spent(long nanos) {
+            spent.addAndGet(nanos);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prints stack traces, but prints each distinct trace in full at most once in a given time window.
+ * Repeated occurrences of a trace within the window are printed as a single line telling how many times the trace has been seen since it was last printed in full.
+ * <p>
+ * Traces are identified by a structural hash of their extended frames (and those of their causes). On HotSpot, the hash is
+ * computed directly from the exception's backtrace, and checking whether a trace has been seen does not allocate.
+ * The number of distinct traces remembered is bounded; the least recently seen traces are forgotten first.
+ *
+ * @author pron
+ */
+public class DeduplicatingStackTracePrinter {
+    private final long windowMillis;
+    private final SeenTable seen;
+
+    /**
+     * Creates a new printer.
+     *
+     * @param window    the length of the time window within which a trace is printed in full just once
+     * @param unit      the time unit of {@code window}
+     * @param maxTraces the maximum number of distinct traces to remember
+     */
+    public DeduplicatingStackTracePrinter(long window, TimeUnit unit, int maxTraces) {
+        if (window < 0)
+            throw new IllegalArgumentException("window must be non-negative: " + window);
+        if (maxTraces <= 0)
+            throw new IllegalArgumentException("maxTraces must be positive: " + maxTraces);
+        this.windowMillis = unit.toMillis(window);
+        this.seen = new SeenTable(maxTraces);
+    }
+
+    /**
+     * Prints the given exception's stack trace to {@link System#err}.
+     *
+     * @return {@code true} if the trace has been printed in full; {@code false} if it has been summarized.
+     */
+    public boolean printStackTrace(Throwable t) {
+        return printStackTrace(t, System.err);
+    }
+
+    /**
+     * Prints the given exception's stack trace to the given print stream.
+     *
+     * @return {@code true} if the trace has been printed in full; {@code false} if it has been summarized.
+     */
+    public boolean printStackTrace(Throwable t, PrintStream s) {
+        final long fingerprint = fingerprint(t);
+        final String summary = check(fingerprint);
+        if (summary == null)
+            ExtendedStackTrace.of(t).printStackTrace(s);
+        else
+            s.println(t + summary);
+        return summary == null;
+    }
+
+    /**
+     * Prints the given exception's stack trace to the given print writer.
+     *
+     * @return {@code true} if the trace has been printed in full; {@code false} if it has been summarized.
+     */
+    public boolean printStackTrace(Throwable t, PrintWriter s) {
+        final long fingerprint = fingerprint(t);
+        final String summary = check(fingerprint);
+        if (summary == null)
+            ExtendedStackTrace.of(t).printStackTrace(s);
+        else
+            s.println(t + summary);
+        return summary == null;
+    }
+
+    /**
+     * Prints the given stack trace to the given print stream.
+     *
+     * @return {@code true} if the trace has been printed in full; {@code false} if it has been summarized.
+     */
+    public boolean printStackTrace(ExtendedStackTrace st, PrintStream s) {
+        final String summary = check(st.fingerprint());
+        if (summary == null)
+            st.printStackTrace(s);
+        else
+            s.println(st + summary);
+        return summary == null;
+    }
+
+    /**
+     * Prints the given stack trace to the given print writer.
+     *
+     * @return {@code true} if the trace has been printed in full; {@code false} if it has been summarized.
+     */
+    public boolean printStackTrace(ExtendedStackTrace st, PrintWriter s) {
+        final String summary = check(st.fingerprint());
+        if (summary == null)
+            st.printStackTrace(s);
+        else
+            s.println(st + summary);
+        return summary == null;
+    }
+
+    private static long fingerprint(Throwable t) {
+        if (ExtendedStackTrace.HOTSPOT)
+            return ExtendedStackTraceHotSpot.fingerprint(t);
+        return ExtendedStackTrace.of(t).fingerprint();
+    }
+
+    /**
+     * Records an occurrence of the trace, and returns {@code null} if it should be printed in full, or the summary line's suffix otherwise.
+     */
+    private String check(long fingerprint) {
+        final long now = System.currentTimeMillis();
+        final long count;
+        final long since;
+        synchronized (seen) {
+            int e = seen.get(fingerprint);
+            if (e < 0)
+                e = seen.add(fingerprint);
+            else
+                seen.touch(e);
+            if (seen.counts[e] == 0 || now - seen.since[e] >= windowMillis) {
+                seen.since[e] = now;
+                seen.counts[e] = 1;
+                return null;
+            }
+            count = ++seen.counts[e];
+            since = seen.since[e];
+        }
+        return " [seen " + count + " times since " + new Date(since) + ']';
+    }
+
+    /**
+     * A fixed-capacity map from fingerprints to occurrence counts, with least-recently-used eviction.
+     * Entries are kept in parallel arrays, linked into a recency list, and indexed by an open-addressing (linear probing) hash table.
+     */
+    private static final class SeenTable {
+        final long[] keys;
+        final long[] since;
+        final long[] counts;
+        private final int[] prev;
+        private final int[] next;
+        private final int[] index; // entry + 1; 0 if empty
+        private final int mask;
+        private int size;
+        private int head = -1; // most recently used
+        private int tail = -1; // least recently used
+
+        SeenTable(int capacity) {
+            this.keys = new long[capacity];
+            this.since = new long[capacity];
+            this.counts = new long[capacity];
+            this.prev = new int[capacity];
+            this.next = new int[capacity];
+            this.index = new int[Integer.highestOneBit(capacity * 4 - 1)];
+            this.mask = index.length - 1;
+        }
+
+        int get(long key) {
+            final int i = find(key);
+            return i >= 0 ? index[i] - 1 : -1;
+        }
+
+        int add(long key) {
+            final int e;
+            if (size < keys.length)
+                e = size++;
+            else {
+                e = tail;
+                unlink(e);
+                remove(find(keys[e]));
+            }
+            keys[e] = key;
+            since[e] = 0;
+            counts[e] = 0;
+            int i = slot(key);
+            while (index[i] != 0)
+                i = (i + 1) & mask;
+            index[i] = e + 1;
+            linkFirst(e);
+            return e;
+        }
+
+        void touch(int e) {
+            if (e != head) {
+                unlink(e);
+                linkFirst(e);
+            }
+        }
+
+        private int slot(long key) {
+            return (int) (key ^ (key >>> 32)) & mask;
+        }
+
+        private int find(long key) {
+            for (int i = slot(key); index[i] != 0; i = (i + 1) & mask) {
+                if (keys[index[i] - 1] == key)
+                    return i;
+            }
+            return -1;
+        }
+
+        private void remove(int i) {
+            // backward-shift deletion
+            for (int j = (i + 1) & mask; index[j] != 0; j = (j + 1) & mask) {
+                final int home = slot(keys[index[j] - 1]);
+                if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                    index[i] = index[j];
+                    i = j;
+                }
+            }
+            index[i] = 0;
+        }
+
+        private void linkFirst(int e) {
+            prev[e] = -1;
+            next[e] = head;
+            if (head >= 0)
+                prev[head] = e;
+            head = e;
+            if (tail < 0)
+                tail = e;
+        }
+
+        private void unlink(int e) {
+            if (prev[e] >= 0)
+                next[prev[e]] = next[e];
+            else
+                head = next[e];
+            if (next[e] >= 0)
+                prev[next[e]] = prev[e];
+            else
+                tail = prev[e];
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Continuously records the most recent exceptions, along with their extended stack frames, into a ring buffer in a memory-mapped file.
+ * <p>
+ * Because the buffer is memory-mapped, its contents survive a crash of the recording process, and can be read offline with {@link #read(File)}.
+ * Each record holds the exception's class, a timestamp, and up to a fixed number of frames, each made of
+ * its class, method and file names (stored as ids into a symbol table kept in the same file), its line number and its bytecode index.
+ * <p>
+ * Recording is lock-free. When the buffer wraps around onto a record that is still being written -- by a thread that started
+ * recording {@code capacity} exceptions earlier -- the newer record is dropped rather than interleaved with the older one.
+ * When the symbol table fills up, new names are recorded as unknown.
+ * <p>
+ * On HotSpot, {@link #record(Throwable)} copies the exception's backtrace into a per-thread buffer and looks its frames up in the classes' method and line indexes,
+ * so once the classes involved have been indexed and all class, method and file names have been seen, recording an exception allocates nothing.
+ * Recording an {@link ExtendedStackTrace}, or recording on other JVMs, creates an element for each recorded frame.
+ *
+ * @author pron
+ */
+public class ExceptionFlightRecorder implements Closeable {
+    private static final int MAGIC = 0x58535452; // "XSTR"
+    private static final int VERSION = 1;
+    private static final int DEFAULT_SYMBOL_TABLE_SIZE = 1 << 20;
+
+    // header
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int MAX_FRAMES_OFFSET = 12;
+    private static final int SYMBOL_TABLE_SIZE_OFFSET = 16;
+    private static final int SYMBOL_TABLE_USED_OFFSET = 20;
+    private static final int HEADER_SIZE = 32;
+
+    // record
+    private static final int RECORD_BEGIN_OFFSET = 0;  // long -- sequence + 1; 0 if empty
+    private static final int RECORD_TIMESTAMP_OFFSET = 8;
+    private static final int RECORD_CLASS_OFFSET = 16;
+    private static final int RECORD_DEPTH_OFFSET = 20;
+    private static final int RECORD_FRAMES_OFFSET = 24;
+    private static final int FRAME_SIZE = 20; // class, method, file, line, bci
+    // the record's end marker (long, equal to its begin marker when the record is complete) follows the frames
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int maxFrames;
+    private final int recordSize;
+    private final int symbolTableSize;
+    private final int recordsOffset;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLongArray slots; // per record: the marker of the last record written, or minus the marker of the record being written
+    private final ConcurrentHashMap<String, Integer> symbols = new ConcurrentHashMap<>();
+    private int symbolTableUsed; // guarded by symbols
+    private volatile boolean symbolTableFull;
+    private final ThreadLocal<FrameBuffer> frames = new ThreadLocal<FrameBuffer>() {
+        @Override
+        protected FrameBuffer initialValue() {
+            return new FrameBuffer(maxFrames);
+        }
+    };
+
+    /**
+     * Creates a recorder that records into the given file.
+     * The file is overwritten, so any recording it contains should be read, with {@link #read(File)}, beforehand.
+     *
+     * @param file      the file to record into
+     * @param capacity  the number of most recent exceptions to retain
+     * @param maxFrames the maximum number of frames to record for each exception
+     */
+    public ExceptionFlightRecorder(File file, int capacity, int maxFrames) throws IOException {
+        this(file, capacity, maxFrames, DEFAULT_SYMBOL_TABLE_SIZE);
+    }
+
+    /**
+     * Creates a recorder that records into the given file.
+     * The file is overwritten, so any recording it contains should be read, with {@link #read(File)}, beforehand.
+     *
+     * @param file            the file to record into
+     * @param capacity        the number of most recent exceptions to retain
+     * @param maxFrames       the maximum number of frames to record for each exception
+     * @param symbolTableSize the number of bytes reserved for class, method and file names
+     */
+    public ExceptionFlightRecorder(File file, int capacity, int maxFrames, int symbolTableSize) throws IOException {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        if (maxFrames < 0)
+            throw new IllegalArgumentException("maxFrames must be non-negative: " + maxFrames);
+        if (symbolTableSize < 0)
+            throw new IllegalArgumentException("symbolTableSize must be non-negative: " + symbolTableSize);
+        this.capacity = capacity;
+        this.maxFrames = maxFrames;
+        this.symbolTableSize = symbolTableSize;
+        this.recordSize = recordSize(maxFrames);
+        this.recordsOffset = HEADER_SIZE + symbolTableSize;
+        this.slots = new AtomicLongArray(capacity);
+        final long size = recordsOffset + (long) capacity * recordSize;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Recording too large: " + size + " bytes");
+
+        this.file = new RandomAccessFile(file, "rw");
+        try {
+            this.file.setLength(0);
+            this.file.setLength(size);
+            this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        buffer.putInt(MAX_FRAMES_OFFSET, maxFrames);
+        buffer.putInt(SYMBOL_TABLE_SIZE_OFFSET, symbolTableSize);
+        buffer.putInt(SYMBOL_TABLE_USED_OFFSET, 0);
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+    }
+
+    /**
+     * Records the given exception.
+     */
+    public void record(Throwable t) {
+        if (t == null)
+            return;
+        if (ExtendedStackTrace.HOTSPOT) {
+            final FrameBuffer buf = frames.get();
+            try {
+                if (ExtendedStackTraceHotSpot.copy(t, buf)) {
+                    record(t.getClass().getName(), null, buf);
+                    return;
+                }
+            } finally {
+                buf.clear(); // don't retain the exception's classes
+            }
+        }
+        record(ExtendedStackTrace.of(t));
+    }
+
+    /**
+     * Records the given stack trace.
+     */
+    public void record(ExtendedStackTrace st) {
+        if (st != null)
+            record(st.getThrowableClassName(), st, null);
+    }
+
+    /**
+     * Records the frames of either the given stack trace or the given buffer.
+     */
+    private void record(String className, ExtendedStackTrace st, FrameBuffer buf) {
+        final long seq = sequence.getAndIncrement();
+        final int slot = (int) (seq % capacity);
+        final int record = recordsOffset + slot * recordSize;
+        final long marker = seq + 1;
+        if (!claim(slot, marker))
+            return;
+
+        try {
+            buffer.putLong(record + RECORD_BEGIN_OFFSET, marker);
+            buffer.putLong(record + RECORD_TIMESTAMP_OFFSET, System.currentTimeMillis());
+            buffer.putInt(record + RECORD_CLASS_OFFSET, symbol(className));
+            int depth = 0;
+            int frame = record + RECORD_FRAMES_OFFSET;
+            if (st != null) {
+                for (ExtendedStackTraceElement e : st) {
+                    if (depth == maxFrames)
+                        break;
+                    writeFrame(frame, e.getClassName(), e.getMethodName(), e.getFileName(), e.getLineNumber(), e.getBytecodeIndex());
+                    frame += FRAME_SIZE;
+                    depth++;
+                }
+            } else {
+                for (; depth < buf.size(); depth++) {
+                    writeFrame(frame, buf.getDeclaringClass(depth).getName(), buf.getMethodName(depth), buf.getFileName(depth),
+                            buf.getLineNumber(depth), buf.getBytecodeIndex(depth));
+                    frame += FRAME_SIZE;
+                }
+            }
+            buffer.putInt(record + RECORD_DEPTH_OFFSET, depth);
+            buffer.putLong(record + recordSize - 8, marker);
+        } finally {
+            slots.set(slot, marker); // a record left incomplete has mismatched markers, and is skipped when read
+        }
+    }
+
+    private void writeFrame(int frame, String className, String methodName, String fileName, int lineNumber, int bci) {
+        buffer.putInt(frame, symbol(className));
+        buffer.putInt(frame + 4, symbol(methodName));
+        buffer.putInt(frame + 8, symbol(fileName));
+        buffer.putInt(frame + 12, lineNumber);
+        buffer.putInt(frame + 16, bci);
+    }
+
+    /**
+     * Claims a record slot for writing. Fails if the slot is being written, or if a newer record has already been written to it.
+     */
+    private boolean claim(int slot, long marker) {
+        for (;;) {
+            final long current = slots.get(slot);
+            if (current < 0 || current >= marker)
+                return false;
+            if (slots.compareAndSet(slot, current, -marker))
+                return true;
+        }
+    }
+
+    /**
+     * Flushes the recording to the storage device.
+     * This is not required for the recording to survive a crash of the process, only of the operating system.
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        file.close();
+    }
+
+    /*
+     * Symbol ids are 1 + the symbol's offset in the symbol table; 0 stands for null or unknown.
+     */
+    private int symbol(String s) {
+        if (s == null)
+            return 0;
+        final Integer id = symbols.get(s);
+        if (id != null)
+            return id;
+        if (symbolTableFull)
+            return 0;
+        return addSymbol(s);
+    }
+
+    private int addSymbol(String s) {
+        synchronized (symbols) {
+            final Integer id = symbols.get(s);
+            if (id != null)
+                return id;
+
+            final int len = ModifiedUTF8.length(s);
+            if (len > 0xffff || symbolTableUsed + 2 + len > symbolTableSize) {
+                if (len <= 0xffff)
+                    symbolTableFull = true;
+                return 0;
+            }
+            final int offset = symbolTableUsed;
+            final int p = HEADER_SIZE + offset;
+            buffer.putShort(p, (short) len);
+            ModifiedUTF8.write(buffer, p + 2, s);
+            symbolTableUsed += 2 + len;
+            buffer.putInt(SYMBOL_TABLE_USED_OFFSET, symbolTableUsed);
+
+            symbols.put(s, offset + 1);
+            return offset + 1;
+        }
+    }
+
+    private static int recordSize(int maxFrames) {
+        return RECORD_FRAMES_OFFSET + maxFrames * FRAME_SIZE + 8;
+    }
+
+    /**
+     * Reads the complete records in a recording, oldest first.
+     * Records that were being written when the recording process crashed are skipped.
+     *
+     * @param file a file written by an {@code ExceptionFlightRecorder}
+     */
+    public static List<Record> read(File file) throws IOException {
+        final ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(MAGIC_OFFSET) != MAGIC)
+            throw new IOException("Not an exception recording: " + file);
+        if (buffer.getInt(VERSION_OFFSET) != VERSION)
+            throw new IOException("Unsupported recording version: " + buffer.getInt(VERSION_OFFSET));
+        final int capacity = buffer.getInt(CAPACITY_OFFSET);
+        final int maxFrames = buffer.getInt(MAX_FRAMES_OFFSET);
+        final int symbolTableSize = buffer.getInt(SYMBOL_TABLE_SIZE_OFFSET);
+        final int symbolTableUsed = Math.min(buffer.getInt(SYMBOL_TABLE_USED_OFFSET), symbolTableSize);
+        final int recordSize = recordSize(maxFrames);
+        final int recordsOffset = HEADER_SIZE + symbolTableSize;
+        if ((long) recordsOffset + (long) capacity * recordSize > buffer.capacity())
+            throw new IOException("Truncated recording: " + file);
+
+        final Map<Integer, String> symbols = new HashMap<>();
+        for (int offset = 0; offset + 2 <= symbolTableUsed;) {
+            final int len = buffer.getShort(HEADER_SIZE + offset) & 0xffff;
+            if (offset + 2 + len > symbolTableUsed)
+                break;
+            symbols.put(offset + 1, ModifiedUTF8.read(buffer, HEADER_SIZE + offset + 2, len));
+            offset += 2 + len;
+        }
+
+        final List<Record> records = new ArrayList<>();
+        for (int i = 0; i < capacity; i++) {
+            final int record = recordsOffset + i * recordSize;
+            final long marker = buffer.getLong(record + RECORD_BEGIN_OFFSET);
+            if (marker == 0 || marker != buffer.getLong(record + recordSize - 8))
+                continue;
+            final int depth = buffer.getInt(record + RECORD_DEPTH_OFFSET);
+            if (depth < 0 || depth > maxFrames)
+                continue;
+            final ExtendedStackTraceElement[] est = new ExtendedStackTraceElement[depth];
+            for (int j = 0; j < depth; j++) {
+                final int frame = record + RECORD_FRAMES_OFFSET + j * FRAME_SIZE;
+                est[j] = new ExtendedStackTraceDetached.DetachedElement(
+                        symbol(symbols, buffer.getInt(frame)),
+                        symbol(symbols, buffer.getInt(frame + 4)),
+                        null,
+                        symbols.get(buffer.getInt(frame + 8)),
+                        buffer.getInt(frame + 12),
+                        buffer.getInt(frame + 16));
+            }
+            records.add(new Record(marker - 1, buffer.getLong(record + RECORD_TIMESTAMP_OFFSET),
+                    new ExtendedStackTraceDetached(symbol(symbols, buffer.getInt(record + RECORD_CLASS_OFFSET)), null, est)));
+        }
+        Collections.sort(records, new Comparator<Record>() {
+            @Override
+            public int compare(Record r1, Record r2) {
+                return Long.compare(r1.sequence, r2.sequence);
+            }
+        });
+        return records;
+    }
+
+    private static String symbol(Map<Integer, String> symbols, int id) {
+        final String s = symbols.get(id);
+        return s != null ? s : "<unknown>";
+    }
+
+    /**
+     * A recorded exception.
+     */
+    public static final class Record {
+        private final long sequence;
+        private final long timestamp;
+        private final ExtendedStackTrace stackTrace;
+
+        Record(long sequence, long timestamp, ExtendedStackTrace stackTrace) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.stackTrace = stackTrace;
+        }
+
+        /**
+         * The record's sequence number; records are numbered consecutively from 0 in the order they were recorded.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * The time the exception was recorded, in milliseconds since the epoch.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * The recorded stack trace. Its elements are detached, and it carries no message, cause or suppressed exceptions.
+         */
+        public ExtendedStackTrace getStackTrace() {
+            return stackTrace;
+        }
+
+        @Override
+        public String toString() {
+            return "Record{sequence: " + sequence + ", timestamp: " + timestamp + ", " + stackTrace + '}';
+        }
+    }
+}
@@ -15,16 +15,16 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicReference;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.Label;
-import org.objectweb.asm.MethodVisitor;
-import org.objectweb.asm.Opcodes;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 import org.objectweb.asm.Type;
 
 /**
@@ -41,27 +41,215 @@ public class ExtendedStackTrace implements Iterable<ExtendedStackTraceElement> {
     public static ExtendedStackTrace of(Throwable t) {
         if (t == null)
             return null;
-        try {
-            return new ExtendedStackTraceHotSpot(t);
-        } catch (Throwable e) {
-            return new ExtendedStackTrace(t);
-        }
+        final ExtendedStackTraceListener l = listener;
+        final long start = l != null ? System.nanoTime() : 0;
+        final ExtendedStackTrace st = HOTSPOT ? new ExtendedStackTraceHotSpot(t) : new ExtendedStackTrace(t);
+        if (l != null)
+            l.captured(st, System.nanoTime() - start);
+        return st;
     }
 
     /**
      * Returns a stack trace for the current execution point.
      */
     public static ExtendedStackTrace here() {
+        final ExtendedStackTraceListener l = listener;
+        final long start = l != null ? System.nanoTime() : 0;
+        final ExtendedStackTrace st = HOTSPOT ? new ExtendedStackTraceHotSpot(new Exception("Stack trace")) : new ExtendedStackTraceClassContext();
+        if (l != null)
+            l.captured(st, System.nanoTime() - start);
+        return st;
+    }
+
+    /**
+     * Captures the stack of the current execution point into the given buffer, replacing its previous contents.
+     * On HotSpot, the frames are recorded as primitive data, and are not resolved until they are requested from the buffer,
+     * so capturing does not create a stack trace object or its elements; the JVM still allocates the arrays recording the stack.
+     * On other JVMs, this method is as costly as {@link #here()}.
+     *
+     * @param buf  the buffer to fill
+     * @param skip the number of top frames to leave out; if 0, the top frame is the caller of this method
+     * @return the number of frames captured
+     */
+    public static int captureInto(FrameBuffer buf, int skip) {
+        if (skip < 0)
+            throw new IllegalArgumentException("skip must be non-negative: " + skip);
+        if (HOTSPOT)
+            ExtendedStackTraceHotSpot.capture(buf, skip + 1);
+        else {
+            buf.clear();
+            buf.setElements(here().get(), skip + 2); // here, captureInto
+        }
+        return buf.size();
+    }
+
+    /**
+     * Captures a stack trace for the current execution point with probability {@code 1/rate}.
+     * To sample a specific call site, and to keep count of the events that are not sampled, use a {@link CaptureSampler}.
+     *
+     * @param rate the average number of calls per captured stack trace
+     * @return the captured stack trace, or {@link CaptureSampler#UNSAMPLED} if the call is not sampled
+     */
+    public static ExtendedStackTrace sampleHere(int rate) {
+        if (rate > 1 && ThreadLocalRandom.current().nextInt(rate) != 0)
+            return CaptureSampler.UNSAMPLED;
+        return here();
+    }
+
+    /**
+     * Sets a listener to be notified whenever a stack trace is captured with {@link #of(Throwable) of} or {@link #here() here}, and whenever it is resolved.
+     * There can be at most one listener; when there is none, notifications cost nothing.
+     *
+     * @param listener the listener, or {@code null} to remove the current one
+     */
+    public static void setListener(ExtendedStackTraceListener listener) {
+        ExtendedStackTrace.listener = listener;
+    }
+
+    /**
+     * Returns the listener set with {@link #setListener(ExtendedStackTraceListener) setListener}, or {@code null} if there is none.
+     */
+    public static ExtendedStackTraceListener getListener() {
+        return listener;
+    }
+
+    private static volatile ExtendedStackTraceListener listener;
+
+    /**
+     * Sets a persistent cache for the line number tables that are read from class files to resolve overloaded methods.
+     *
+     * @param cache the cache, or {@code null} to read class files without caching
+     */
+    public static void setLineIndexCache(LineIndexCache cache) {
+        ExtendedStackTrace.lineIndexCache = cache;
+    }
+
+    static LineIndexCache getLineIndexCache() {
+        return lineIndexCache;
+    }
+
+    private static volatile LineIndexCache lineIndexCache;
+
+    /**
+     * Returns a stack trace with extended information for the given thread.
+     * If {@code thread} is not the current thread, its stack is captured at a safepoint, while the thread is paused;
+     * the extended information is only resolved when it is requested, after the thread has resumed.
+     * <p>
+     * {@code thread} may be a virtual thread, in which case only its own frames are captured, whether it is mounted or parked.
+     *
+     * @param thread the thread whose stack is to be captured
+     * @return the thread's stack trace, or {@code null} if {@code thread} is {@code null}.
+     */
+    public static ExtendedStackTrace of(Thread thread) {
+        if (thread == null)
+            return null;
+        if (thread == Thread.currentThread())
+            return here();
+        return new ExtendedStackTraceThread(thread, thread.getStackTrace());
+    }
+
+    /**
+     * Returns extended stack traces for the given threads, which may include virtual threads.
+     * Unlike {@link #dumpAllThreads()}, each thread is paused separately.
+     *
+     * @return a map from each of the given threads that is alive to its stack trace
+     */
+    public static Map<Thread, ExtendedStackTrace> dumpThreads(Collection<? extends Thread> threads) {
+        final Map<Thread, ExtendedStackTrace> ests = new LinkedHashMap<>(threads.size() * 2);
+        for (Thread thread : threads) {
+            if (thread.isAlive())
+                ests.put(thread, of(thread));
+        }
+        return ests;
+    }
+
+    /**
+     * Tests whether the given thread is a virtual thread.
+     * Always returns {@code false} on Java versions that do not support virtual threads.
+     */
+    public static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null)
+            return false;
+        try {
+            return (Boolean) IS_VIRTUAL.invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    private static final Method IS_VIRTUAL = getIsVirtualMethod();
+
+    private static Method getIsVirtualMethod() {
         try {
-            return new ExtendedStackTraceHotSpot(new Exception("Stack trace"));
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns extended stack traces for all live platform threads.
+     * Virtual threads are not included; see {@link #dumpThreads(Collection) dumpThreads}.
+     * All threads are paused just once, together, to capture their stacks (as in {@link Thread#getAllStackTraces()}),
+     * and the extended information is only resolved when it is requested, after the threads have resumed.
+     *
+     * @return a map from each live thread to its stack trace
+     */
+    public static Map<Thread, ExtendedStackTrace> dumpAllThreads() {
+        final Map<Thread, StackTraceElement[]> sts = Thread.getAllStackTraces();
+        final Map<Thread, ExtendedStackTrace> ests = new LinkedHashMap<>(sts.size() * 2);
+        for (Map.Entry<Thread, StackTraceElement[]> e : sts.entrySet())
+            ests.put(e.getKey(), new ExtendedStackTraceThread(e.getKey(), e.getValue()));
+        return ests;
+    }
+
+    /**
+     * Builds the per-class indexes used to resolve the methods of stack frames in the given classes, so that the first stack traces
+     * that include them are not slow to resolve and print. Meant to be called at startup.
+     * The classes are indexed in parallel, by as many tasks as there are processors, run by the given executor.
+     *
+     * @param classes  the classes to index
+     * @param executor runs the indexing tasks
+     * @return a future that completes when all classes have been indexed; its value is the number of classes indexed.
+     *         It fails if the executor rejects all indexing tasks.
+     */
+    public static Future<Integer> prewarm(Collection<? extends Class<?>> classes, Executor executor) {
+        return Prewarmer.prewarm(classes, executor);
+    }
+
+    /**
+     * Builds the per-class indexes used to resolve the methods of stack frames in the classes of the given packages
+     * (and their subpackages), so that the first stack traces that include them are not slow to resolve and print. Meant to be called at startup.
+     * The classes are found, loaded (but not initialized) and indexed in parallel, by tasks run by the given executor.
+     * Packages are searched in directories and JAR files.
+     *
+     * @param loader   the class loader to find and load the classes with; if {@code null}, the system class loader is used
+     * @param packages the names of the packages whose classes are to be indexed
+     * @param executor runs the indexing tasks
+     * @return a future that completes when all classes have been indexed; its value is the number of classes indexed.
+     *         It fails if the executor rejects all indexing tasks.
+     */
+    public static Future<Integer> prewarm(ClassLoader loader, Collection<String> packages, Executor executor) {
+        return Prewarmer.prewarm(loader, packages, executor);
+    }
+
+    /**
+     * Whether the {@link ExtendedStackTraceHotSpot HotSpot} backend is available on this JVM.
+     */
+    static final boolean HOTSPOT = isHotSpotAvailable();
+
+    private static boolean isHotSpotAvailable() {
+        try {
+            Class.forName(ExtendedStackTraceHotSpot.class.getName(), true, ExtendedStackTrace.class.getClassLoader());
+            return true;
         } catch (Throwable e) {
-            return new ExtendedStackTraceClassContext();
+            return false;
         }
     }
 
     protected final Throwable t;
     private ExtendedStackTraceElement[] est;
-//    private transient Map<Class<?>, Member[]> methods; // cache
+    private volatile long fingerprint; // cache; 0 if not yet computed
 
     protected ExtendedStackTrace(Throwable t) {
         this.t = t;
@@ -72,84 +260,157 @@ public class ExtendedStackTrace implements Iterable<ExtendedStackTraceElement> {
         return Arrays.asList(get()).iterator();
     }
 
+    /**
+     * Returns the number of frames in the stack trace.
+     * Depending on the JVM, this may not require resolving the frames.
+     */
+    public int depth() {
+        final ExtendedStackTraceElement[] est = get();
+        return est != null ? est.length : 0;
+    }
+
+    /**
+     * Returns an iterator over the frames in the given range.
+     * Depending on the JVM, frames are resolved one by one as the iterator reaches them, so iterating over a short range
+     * (or stopping early) does not resolve the entire stack trace; on HotSpot, a new element may be created on each iteration.
+     *
+     * @param from the index of the first frame (inclusive), counting from the top
+     * @param to   the index of the last frame (exclusive), counting from the top; at most {@link #depth()}
+     */
+    public Iterator<ExtendedStackTraceElement> iterator(int from, int to) {
+        return Arrays.asList(get()).subList(from, to).iterator();
+    }
+
+    /**
+     * Returns the stack trace of the cause of the captured {@code Throwable}, or {@code null} if there isn't one.
+     */
+    public ExtendedStackTrace getCause() {
+        return ExtendedStackTrace.of(t.getCause());
+    }
+
+    /**
+     * Returns the stack traces of the exceptions suppressed by the captured {@code Throwable}.
+     */
+    public ExtendedStackTrace[] getSuppressed() {
+        final Throwable[] ss = t.getSuppressed();
+        final ExtendedStackTrace[] ests = new ExtendedStackTrace[ss.length];
+        for (int i = 0; i < ss.length; i++)
+            ests[i] = ExtendedStackTrace.of(ss[i]);
+        return ests;
+    }
+
+    /**
+     * The stack trace of the submission of the asynchronous task in which this stack trace was captured, if it has been
+     * {@link AsyncStackTraces stitched} to it; otherwise {@code null}.
+     */
+    ExtendedStackTrace getAsyncParent() {
+        return null;
+    }
+
+    /**
+     * The name of the class of the captured {@code Throwable}.
+     */
+    String getThrowableClassName() {
+        return t.getClass().getName();
+    }
+
+    /**
+     * The message of the captured {@code Throwable}.
+     */
+    String getThrowableMessage() {
+        return t.getLocalizedMessage();
+    }
+
+    /**
+     * A structural hash of this stack trace's frames and of those of its chain of causes.
+     * Equal traces (with equal causes) have equal fingerprints.
+     */
+    long fingerprint() {
+        long h = fingerprint;
+        if (h == 0) {
+            int n = 0;
+            for (ExtendedStackTrace st = this; st != null && n < MAX_FINGERPRINTED_CAUSES; st = st.getCause(), n++)
+                h = mix(h, st.framesFingerprint());
+            fingerprint = h;
+        }
+        return h;
+    }
+
+    /**
+     * A structural hash of this stack trace's frames (not including its causes).
+     */
+    long framesFingerprint() {
+        long h = getThrowableClassName().hashCode();
+        final ExtendedStackTraceElement[] trace = get();
+        if (trace != null) {
+            for (ExtendedStackTraceElement e : trace) {
+                h = mix(h, e.getClassName().hashCode());
+                h = mix(h, e.getMethodName().hashCode());
+                h = mix(h, ((long) e.getLineNumber() << 32) | (e.getBytecodeIndex() & 0xffffffffL));
+            }
+        }
+        return h;
+    }
+
+    static final int MAX_FINGERPRINTED_CAUSES = 32;
+
+    static long mix(long h, long x) {
+        h = (h ^ x) * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 32);
+    }
+
+    @Override
+    public String toString() {
+        return t.toString();
+    }
+
     /**
      * Returns an array of {@link ExtendedStackTraceElement}s representing the captured stack trace.
      */
     public ExtendedStackTraceElement[] get() {
         synchronized (this) {
             if (est == null) {
-                StackTraceElement[] st = t.getStackTrace();
-                if (st != null) {
-                    est = new ExtendedStackTraceElement[st.length];
-                    for (int i = 0; i < st.length; i++)
-                        est[i] = new BasicExtendedStackTraceElement(st[i]);
-                }
+                final ExtendedStackTraceListener l = listener;
+                final long start = l != null ? System.nanoTime() : 0;
+                est = resolveShared();
+                if (l != null && est != null)
+                    l.resolved(this, est.length, System.nanoTime() - start);
             }
             return est;
         }
     }
 
+    /**
+     * Resolves the stack trace, with all occurrences of a frame in recursive stack traces sharing a single element.
+     */
+    ExtendedStackTraceElement[] resolveShared() {
+        return FrameCycles.share(resolve());
+    }
+
+    /**
+     * Creates the elements of the captured stack trace. Called once, by {@link #get()}.
+     */
+    protected ExtendedStackTraceElement[] resolve() {
+        final StackTraceElement[] st = t.getStackTrace();
+        if (st == null)
+            return null;
+        final ExtendedStackTraceElement[] est = new ExtendedStackTraceElement[st.length];
+        for (int i = 0; i < st.length; i++)
+            est[i] = new BasicExtendedStackTraceElement(st[i]);
+        return est;
+    }
+
     protected /*Executable*/ Member getMethod(final ExtendedStackTraceElement este) {
         if (este.getDeclaringClass() == null)
             return null;
-        Member[] ms = getMethods(este.getDeclaringClass());
-        Member method = null;
-
-        for (Member m : ms) {
-            if (este.getMethodName().equals(m.getName())) {
-                if (method == null)
-                    method = m;
-                else {
-                    method = null; // more than one match
-                    break;
-                }
-            }
-        }
+        final MethodIndex index = MethodIndex.of(este.getDeclaringClass());
+        Member method = index.getMember(este.getMethodName());
         if (method == null && este.getLineNumber() >= 0) {
-            try {
-                final AtomicReference<String> descriptor = new AtomicReference<>();
-                ASMUtil.accept(este.getDeclaringClass(), ClassReader.SKIP_FRAMES, new ClassVisitor(Opcodes.ASM5) {
-                    @Override
-                    public MethodVisitor visitMethod(int access, String name, final String desc, String signature, String[] exceptions) {
-                        MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
-                        if (descriptor.get() == null && este.getMethodName().equals(name)) {
-                            mv = new MethodVisitor(api, mv) {
-                                int minLine = Integer.MAX_VALUE, maxLine = Integer.MIN_VALUE;
-
-                                @Override
-                                public void visitLineNumber(int line, Label start) {
-                                    if (line < minLine)
-                                        minLine = line;
-                                    if (line > maxLine)
-                                        maxLine = line;
-                                }
-
-                                @Override
-                                public void visitEnd() {
-                                    if (minLine <= este.getLineNumber() && maxLine >= este.getLineNumber())
-                                        descriptor.set(desc);
-                                    super.visitEnd();
-                                }
-                            };
-                        }
-                        return mv;
-                    }
-                });
-
-                if (descriptor.get() != null) {
-                    final String desc = descriptor.get();
-                    for (Member m : ms) {
-                        if (este.getMethodName().equals(getName(m)) && desc.equals(getDescriptor(m))) {
-                            method = m;
-                            break;
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            // overloaded; find the method by the line
+            final String desc = index.getLineIndex().getDescriptor(este.getMethodName(), este.getLineNumber());
+            if (desc != null)
+                method = index.getMember(este.getMethodName(), desc);
         }
-
         return method;
     }
 
@@ -165,23 +426,11 @@ public class ExtendedStackTrace implements Iterable<ExtendedStackTraceElement> {
         return Type.getMethodDescriptor((Method) m);
     }
 
+    /**
+     * Returns the constructors and methods declared by the given class. The returned array is shared, and must not be modified.
+     */
     protected final Member[] getMethods(Class<?> clazz) {
-//        synchronized (this) {
-        Member[] es;
-//            if (methods == null)
-//                methods = new HashMap<>();
-//            es = methods.get(clazz);
-//            if (es == null) {
-        Method[] ms = clazz.getDeclaredMethods();
-        Constructor[] cs = clazz.getDeclaredConstructors();
-        es = new Member[ms.length + cs.length];
-        System.arraycopy(cs, 0, es, 0, cs.length);
-        System.arraycopy(ms, 0, es, cs.length, ms.length);
-
-//                methods.put(clazz, es);
-//            }
-        return es;
-//        }
+        return MethodIndex.of(clazz).members;
     }
 
     protected class BasicExtendedStackTraceElement extends ExtendedStackTraceElement {
@@ -197,6 +446,10 @@ public class ExtendedStackTrace implements Iterable<ExtendedStackTraceElement> {
             super(ste, null, null, -1);
         }
 
+        protected BasicExtendedStackTraceElement(String declaringClassName, String methodName, String fileName, int lineNumber, Class<?> clazz, Member method, int bci) {
+            super(declaringClassName, methodName, fileName, lineNumber, clazz, method, bci);
+        }
+
         @Override
         public Member getMethod() {
             if (method == null) {
@@ -211,16 +464,20 @@ public class ExtendedStackTrace implements Iterable<ExtendedStackTraceElement> {
 
         @Override
         public Class<?> getDeclaringClass() {
-            if (clazz == null) {
-                try {
-                    clazz = Class.forName(getClassName());
-                } catch (ClassNotFoundException e) {
-                }
-            }
+            if (clazz == null)
+                clazz = ExtendedStackTrace.this.getDeclaringClass(this);
             return clazz;
         }
     }
 
+    protected Class<?> getDeclaringClass(ExtendedStackTraceElement este) {
+        try {
+            return Class.forName(este.getClassName());
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
     //<editor-fold defaultstate="collapsed" desc="Printing">
     /////////// Printing ///////////////////////////////////
     /*
@@ -262,24 +519,47 @@ public class ExtendedStackTrace implements Iterable<ExtendedStackTraceElement> {
      * Prints this stack trace to the given print stream.
      */
     public void printStackTrace(PrintStream s) {
-        printStackTrace(new WrappedPrintStream(s));
+        printStackTrace(new WrappedPrintStream(s), null, false);
     }
 
     /**
      * Prints this stack trace to the given print writer.
      */
     public void printStackTrace(PrintWriter s) {
-        printStackTrace(new WrappedPrintWriter(s));
+        printStackTrace(new WrappedPrintWriter(s), null, false);
     }
 
-    private void printStackTrace(PrintStreamOrWriter s) {
+    /**
+     * Appends this stack trace, as it would be printed by {@link #printStackTrace(PrintStream)}, to the given {@code StringBuilder}.
+     * Each line, including the last, is terminated by the system's line separator.
+     */
+    public void printStackTrace(StringBuilder sb) {
+        printStackTrace(sb, null, false);
+    }
+
+    /**
+     * Appends this stack trace to the given {@code StringBuilder}, leaving out the frames selected by the given filter.
+     * Each line, including the last, is terminated by the system's line separator.
+     *
+     * @param sb             the {@code StringBuilder} to append to
+     * @param filter         selects the frames to leave out; may be {@code null}
+     * @param resolveMethods whether to resolve the method of each printed frame, so that its full signature is printed
+     *                       (otherwise, only signatures of methods that have already been resolved are printed)
+     */
+    public void printStackTrace(StringBuilder sb, FrameFilter filter, boolean resolveMethods) {
+        printStackTrace(new WrappedStringBuilder(sb), filter, resolveMethods);
+    }
+
+    private void printStackTrace(PrintStreamOrWriter s, FrameFilter filter, boolean resolveMethods) {
         synchronized (s.lock()) {
             // Guard against malicious overrides of Throwable.equals by using a Set with identity equality semantics.
-            printStackTrace(s, null, "", "", Collections.newSetFromMap(new IdentityHashMap<Throwable, Boolean>()));
+            printStackTrace(s, filter, resolveMethods, null, "", "", Collections.newSetFromMap(new IdentityHashMap<Throwable, Boolean>()));
         }
     }
 
     private void printStackTrace(PrintStreamOrWriter s,
+                                 FrameFilter filter,
+                                 boolean resolveMethods,
                                  ExtendedStackTraceElement[] enclosingTrace,
                                  String caption,
                                  String prefix,
@@ -295,24 +575,70 @@ public class ExtendedStackTrace implements Iterable<ExtendedStackTraceElement> {
 
             // Print our stack trace
             s.println(prefix + caption + this);
-            for (int i = 0; i < unique; i++)
-                s.println(prefix + "\tat " + trace[i]);
+            final StringBuilder line = new StringBuilder();
+            int filtered = 0;
+            for (int i = 0; i < unique;) {
+                // a cycle of recursive frames is printed once, followed by the number of its repetitions
+                final int period = FrameCycles.findPeriod(trace, i, unique);
+                final int end = period > 0 ? i + period : i + 1;
+                for (int k = i; k < end; k++) {
+                    if (filter != null && filter.isFiltered(trace[k])) {
+                        filtered++;
+                        continue;
+                    }
+                    if (filtered != 0) {
+                        s.println(prefix + "\t... " + filtered + " filtered");
+                        filtered = 0;
+                    }
+                    if (resolveMethods)
+                        trace[k].getMethod();
+                    line.setLength(0);
+                    trace[k].appendTo(line.append(prefix).append("\tat "));
+                    s.println(line);
+                    if (isContinuationBoundary(trace, k))
+                        s.println(prefix + CONTINUATION_BOUNDARY);
+                }
+                if (period > 0) {
+                    if (filtered != 0) {
+                        s.println(prefix + "\t... " + filtered + " filtered");
+                        filtered = 0;
+                    }
+                    final int repeats = FrameCycles.countRepeats(trace, i, period, unique);
+                    s.println(prefix + "\t... frames " + i + ".." + (end - 1) + " repeated " + (repeats - 1) + " more times");
+                    i += repeats * period;
+                } else
+                    i = end;
+            }
+            if (filtered != 0)
+                s.println(prefix + "\t... " + filtered + " filtered");
             
             final int framesInCommon = trace.length - unique;
             if (framesInCommon != 0)
                 s.println(prefix + "\t... " + framesInCommon + " more");
 
+            // Print the submission of the asynchronous task, if any, unless it has already been printed (causes thrown in the same task share it)
+            final ExtendedStackTrace parent = getAsyncParent();
+            if (parent != null && !dejaVu.contains(parent.t))
+                parent.printStackTrace(s, filter, resolveMethods, trace, SUBMITTED_CAPTION, prefix, dejaVu);
+
             // Print suppressed exceptions, if any
-            for (Throwable se : t.getSuppressed())
-                ExtendedStackTrace.of(se).printStackTrace(s, trace, SUPPRESSED_CAPTION, prefix + "\t", dejaVu);
+            for (ExtendedStackTrace se : getSuppressed())
+                se.printStackTrace(s, filter, resolveMethods, trace, SUPPRESSED_CAPTION, prefix + "\t", dejaVu);
 
             // Print cause, if any
-            final ExtendedStackTrace ourCause = ExtendedStackTrace.of(t.getCause());
+            final ExtendedStackTrace ourCause = getCause();
             if (ourCause != null)
-                ourCause.printStackTrace(s, trace, CAUSE_CAPTION, prefix, dejaVu);
+                ourCause.printStackTrace(s, filter, resolveMethods, trace, CAUSE_CAPTION, prefix, dejaVu);
         }
     }
 
+    /**
+     * Whether the given frame is the outermost entry frame of a continuation, and is followed by frames of an enclosing continuation or of the carrier thread.
+     */
+    private static boolean isContinuationBoundary(ExtendedStackTraceElement[] trace, int i) {
+        return i + 1 < trace.length && trace[i].isContinuationEntry() && !trace[i + 1].isContinuationEntry();
+    }
+
     private static int countUniqueFrames(ExtendedStackTraceElement[] trace, ExtendedStackTraceElement[] enclosingTrace) {
         int m = trace.length - 1;
         if (enclosingTrace != null) {
@@ -327,6 +653,8 @@ public class ExtendedStackTrace implements Iterable<ExtendedStackTraceElement> {
 
     private static final String CAUSE_CAPTION = "Caused by: ";
     private static final String SUPPRESSED_CAPTION = "Suppressed: ";
+    private static final String SUBMITTED_CAPTION = "Submitted: ";
+    private static final String CONTINUATION_BOUNDARY = "\t-- continuation boundary --";
 
     /**
      * Wrapper class for PrintStream and PrintWriter to enable a single implementation of printStackTrace.
@@ -368,5 +696,26 @@ public class ExtendedStackTrace implements Iterable<ExtendedStackTraceElement> {
             printWriter.println(o);
         }
     }
+
+    private static class WrappedStringBuilder extends PrintStreamOrWriter {
+        private static final String LINE_SEPARATOR = System.lineSeparator();
+        private final StringBuilder sb;
+
+        WrappedStringBuilder(StringBuilder sb) {
+            this.sb = sb;
+        }
+
+        Object lock() {
+            return sb;
+        }
+
+        void println(Object o) {
+            if (o instanceof CharSequence)
+                sb.append((CharSequence) o); // avoids String.valueOf
+            else
+                sb.append(o);
+            sb.append(LINE_SEPARATOR);
+        }
+    }
     //</editor-fold>
 }
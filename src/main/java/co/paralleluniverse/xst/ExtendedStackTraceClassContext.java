@@ -13,7 +13,6 @@ package co.paralleluniverse.xst;
  */
 class ExtendedStackTraceClassContext extends ExtendedStackTrace {
     private static final ClassContext classContextGenerator = new ClassContext();
-    private ExtendedStackTraceElement[] est;
     private final Class[] classContext;
 
     ExtendedStackTraceClassContext() {
@@ -30,35 +29,32 @@ class ExtendedStackTraceClassContext extends ExtendedStackTrace {
     }
 
     @Override
-    public ExtendedStackTraceElement[] get() {
-        synchronized (this) {
-            if (est == null) {
-                final StackTraceElement[] st = t.getStackTrace();
-                if (st != null) {
-                    est = new ExtendedStackTraceElement[st.length - 1];
-                    for (int i = 1, k = 2; i < st.length; i++, k++) {
-                        if (skipCTX(classContext[k]))
-                            i--;
-                        else {
-                            final StackTraceElement ste = st[i];
-                            final Class<?> clazz;
-                            if (skipSTE(st[i])) {
-                                k--;
-                                clazz = null;
-                            } else
-                                clazz = classContext[k];
-                            est[i - 1] = new BasicExtendedStackTraceElement(ste, clazz);
-                            // System.out.println(">>>> " + k + ": " + (clazz != null ? clazz.getName() : null) + " :: " + i + ": " + ste);
-                        }
-                    }
-                }
+    protected ExtendedStackTraceElement[] resolve() {
+        final StackTraceElement[] st = t.getStackTrace();
+        if (st == null)
+            return null;
+        final ExtendedStackTraceElement[] est = new ExtendedStackTraceElement[st.length - 1];
+        for (int i = 1, k = 2; i < st.length; i++, k++) {
+            if (skipCTX(classContext[k]))
+                i--;
+            else {
+                final StackTraceElement ste = st[i];
+                final Class<?> clazz;
+                if (skipSTE(st[i])) {
+                    k--;
+                    clazz = null;
+                } else
+                    clazz = classContext[k];
+                est[i - 1] = new BasicExtendedStackTraceElement(ste, clazz);
+                // System.out.println(">>>> " + k + ": " + (clazz != null ? clazz.getName() : null) + " :: " + i + ": " + ste);
             }
-            return est;
         }
+        return est;
     }
 
     static boolean skipSTE(StackTraceElement ste) {
         return (ste.getClassName().startsWith("sun.reflect")
+                || ste.getClassName().startsWith("jdk.internal.reflect")
                 || ste.getClassName().equals("java.lang.reflect.Method")
                 || ste.getClassName().startsWith("java.lang.invoke."));
     }
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.lang.reflect.Member;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of an {@link ExtendedStackTrace}, including its tree of causes and suppressed exceptions.
+ * <p>
+ * All strings (class, method and file names, and method descriptors) are written once per encoded trace, and referred to by index thereafter;
+ * integers are written as varints. Each frame's method descriptor is written when the frame's method can be found,
+ * so encoding resolves the methods of the stack trace's frames (through the same per-class indexes used by the stack trace itself).
+ * <p>
+ * Decoded stack traces are <i>detached</i>: their elements carry no {@code Class} or {@code Member}, so the classes they name need not be present.
+ *
+ * @author pron
+ */
+public final class ExtendedStackTraceCodec {
+    private static final int MAGIC = 0x58535401; // "XST" + version 1
+    private static final int NONE = 0;
+    private static final int NODE = 1;
+    private static final int BACKREF = 2;
+    private static final int MIN_FRAME_SIZE = 6; // four string references and two varints, of at least one byte each
+    private static final int MAX_NESTING = 1024; // the maximum depth of nested causes and suppressed exceptions
+
+    /**
+     * Encodes the given stack trace into a {@code ByteBuffer}.
+     *
+     * @throws java.nio.BufferOverflowException if the buffer does not have sufficient space for the encoded trace
+     * @throws IllegalArgumentException          if causes and suppressed exceptions are nested more than 1024 deep
+     */
+    public static void encode(ExtendedStackTrace st, final ByteBuffer buffer) {
+        try {
+            new Encoder(new Output() {
+                @Override
+                void write(int b) {
+                    buffer.put((byte) b);
+                }
+            }).encode(st);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Encodes the given stack trace into an {@code OutputStream}.
+     * The encoding is written a byte at a time, so the stream should be buffered.
+     *
+     * @throws IllegalArgumentException if causes and suppressed exceptions are nested more than 1024 deep
+     */
+    public static void encode(ExtendedStackTrace st, final OutputStream os) throws IOException {
+        new Encoder(new Output() {
+            @Override
+            void write(int b) throws IOException {
+                os.write(b);
+            }
+        }).encode(st);
+    }
+
+    /**
+     * Decodes a stack trace from a {@code ByteBuffer}.
+     *
+     * @throws IllegalArgumentException if the buffer does not contain an encoded stack trace
+     * @throws java.nio.BufferUnderflowException if the encoded trace is truncated
+     */
+    public static ExtendedStackTrace decode(final ByteBuffer buffer) {
+        try {
+            return new Decoder(new Input() {
+                @Override
+                int read() {
+                    return buffer.get() & 0xff;
+                }
+
+                @Override
+                int remaining() {
+                    return buffer.remaining();
+                }
+            }).decode();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decodes a stack trace from an {@code InputStream}.
+     * The encoding is read a byte at a time, so the stream should be buffered.
+     */
+    public static ExtendedStackTrace decode(final InputStream is) throws IOException {
+        return new Decoder(new Input() {
+            @Override
+            int read() throws IOException {
+                final int b = is.read();
+                if (b < 0)
+                    throw new EOFException();
+                return b;
+            }
+        }).decode();
+    }
+
+    private static class Encoder {
+        private final Output out;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Throwable, Integer> nodes = new IdentityHashMap<>(); // keyed by the throwable, as getCause() returns a new trace on each call
+
+        Encoder(Output out) {
+            this.out = out;
+        }
+
+        void encode(ExtendedStackTrace st) throws IOException {
+            out.writeInt(MAGIC);
+            writeNode(st, 0);
+        }
+
+        private void writeNode(ExtendedStackTrace st, int nesting) throws IOException {
+            if (st == null) {
+                out.writeVarint(NONE);
+                return;
+            }
+            final Integer ref = nodes.get(st.t);
+            if (ref != null) {
+                out.writeVarint(BACKREF);
+                out.writeVarint(ref);
+                return;
+            }
+            if (nesting >= MAX_NESTING)
+                throw new IllegalArgumentException("Causes and suppressed exceptions nested more than " + MAX_NESTING + " deep");
+            nodes.put(st.t, nodes.size());
+
+            out.writeVarint(NODE);
+            writeString(st.getThrowableClassName());
+            writeString(st.getThrowableMessage());
+            final ExtendedStackTraceElement[] trace = st.get();
+            out.writeVarint(trace.length);
+            for (ExtendedStackTraceElement e : trace) {
+                writeString(e.getClassName());
+                writeString(e.getMethodName());
+                writeString(getDescriptor(e));
+                writeString(e.getFileName());
+                out.writeSignedVarint(e.getLineNumber());
+                out.writeSignedVarint(e.getBytecodeIndex());
+            }
+            final ExtendedStackTrace[] suppressed = st.getSuppressed();
+            out.writeVarint(suppressed.length);
+            for (ExtendedStackTrace se : suppressed)
+                writeNode(se, nesting + 1);
+            writeNode(st.getCause(), nesting + 1);
+        }
+
+        private static String getDescriptor(ExtendedStackTraceElement e) {
+            final String descriptor = e.getMethodDescriptor();
+            if (descriptor != null)
+                return descriptor;
+            final Class<?> clazz = e.getDeclaringClass();
+            if (clazz == null)
+                return null;
+            final Member method = e.getMethod();
+            return method != null ? MethodIndex.of(clazz).getDescriptor(method) : null;
+        }
+
+        /*
+         * 0 stands for null; 1..n refer to a string previously written; n + 1 introduces a new string, which follows inline.
+         */
+        private void writeString(String s) throws IOException {
+            if (s == null) {
+                out.writeVarint(0);
+                return;
+            }
+            final Integer ref = strings.get(s);
+            if (ref != null) {
+                out.writeVarint(ref);
+                return;
+            }
+            final int index = strings.size() + 1;
+            strings.put(s, index);
+            out.writeVarint(index);
+            out.writeUTF(s);
+        }
+    }
+
+    private static class Decoder {
+        private final Input in;
+        private final List<String> strings = new ArrayList<>();
+        private final List<ExtendedStackTrace> nodes = new ArrayList<>();
+
+        Decoder(Input in) {
+            this.in = in;
+        }
+
+        ExtendedStackTrace decode() throws IOException {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not an encoded extended stack trace");
+            return readNode(0);
+        }
+
+        private ExtendedStackTrace readNode(int nesting) throws IOException {
+            final int tag = in.readVarint();
+            switch (tag) {
+                case NONE:
+                    return null;
+                case BACKREF:
+                    final int ref = in.readVarint();
+                    if (ref < 0 || ref >= nodes.size())
+                        throw new IOException("Bad node reference: " + ref);
+                    return nodes.get(ref);
+                case NODE:
+                    if (nesting >= MAX_NESTING)
+                        throw new IOException("Causes and suppressed exceptions nested more than " + MAX_NESTING + " deep");
+                    break;
+                default:
+                    throw new IOException("Bad node tag: " + tag);
+            }
+
+            final String className = readString();
+            final String message = readString();
+            final int depth = in.readLength(MIN_FRAME_SIZE, "frame count");
+            final List<ExtendedStackTraceElement> trace = new ArrayList<>(Math.min(depth, 1024)); // grown as frames are read, in case the remaining input is unknown
+            for (int i = 0; i < depth; i++) {
+                final String declaringClassName = readString();
+                final String methodName = readString();
+                final String descriptor = readString();
+                final String fileName = readString();
+                final int lineNumber = in.readSignedVarint();
+                final int bci = in.readSignedVarint();
+                if (declaringClassName == null || methodName == null)
+                    throw new IOException("Missing class or method name in frame " + i);
+                trace.add(new ExtendedStackTraceDetached.DetachedElement(declaringClassName, methodName, descriptor, fileName, lineNumber, bci));
+            }
+            if (className == null)
+                throw new IOException("Missing exception class name");
+
+            final ExtendedStackTraceDetached st = new ExtendedStackTraceDetached(className, message, trace.toArray(new ExtendedStackTraceElement[depth]));
+            nodes.add(st);
+            final int suppressed = in.readLength(1, "suppressed count");
+            for (int i = 0; i < suppressed; i++)
+                st.addSuppressed(readNode(nesting + 1));
+            st.setCause(readNode(nesting + 1));
+            return st;
+        }
+
+        private String readString() throws IOException {
+            final int ref = in.readVarint();
+            if (ref == 0)
+                return null;
+            if (ref > 0 && ref <= strings.size())
+                return strings.get(ref - 1);
+            if (ref != strings.size() + 1)
+                throw new IOException("Bad string reference: " + ref);
+            final String s = in.readUTF();
+            strings.add(s);
+            return s;
+        }
+    }
+
+    private abstract static class Output {
+        abstract void write(int b) throws IOException;
+
+        void writeInt(int x) throws IOException {
+            write(x >>> 24);
+            write(x >>> 16);
+            write(x >>> 8);
+            write(x);
+        }
+
+        void writeVarint(int x) throws IOException {
+            while ((x & ~0x7f) != 0) {
+                write((x & 0x7f) | 0x80);
+                x >>>= 7;
+            }
+            write(x);
+        }
+
+        void writeSignedVarint(int x) throws IOException {
+            writeVarint((x << 1) ^ (x >> 31)); // zigzag
+        }
+
+        /*
+         * Writes the string's chars directly, in the modified UTF-8 of DataOutput.writeUTF (without its 64K length limit).
+         */
+        void writeUTF(String s) throws IOException {
+            final int n = s.length();
+            writeVarint(ModifiedUTF8.length(s));
+            for (int i = 0; i < n; i++) {
+                final char c = s.charAt(i);
+                if (c >= 0x0001 && c <= 0x007f)
+                    write(c);
+                else if (c > 0x07ff) {
+                    write(0xe0 | ((c >> 12) & 0x0f));
+                    write(0x80 | ((c >> 6) & 0x3f));
+                    write(0x80 | (c & 0x3f));
+                } else {
+                    write(0xc0 | ((c >> 6) & 0x1f));
+                    write(0x80 | (c & 0x3f));
+                }
+            }
+        }
+    }
+
+    private abstract static class Input {
+        abstract int read() throws IOException;
+
+        /**
+         * The number of bytes left in the input, or {@code Integer.MAX_VALUE} if unknown.
+         */
+        int remaining() {
+            return Integer.MAX_VALUE;
+        }
+
+        /**
+         * Reads the number of items that follow, each taking at least {@code minSize} bytes, and checks it against the remaining input.
+         */
+        int readLength(int minSize, String what) throws IOException {
+            final int n = readVarint();
+            if (n < 0 || n > remaining() / minSize)
+                throw new IOException("Bad " + what + ": " + (n & 0xffffffffL));
+            return n;
+        }
+
+        int readInt() throws IOException {
+            return (read() << 24) | (read() << 16) | (read() << 8) | read();
+        }
+
+        int readVarint() throws IOException {
+            int x = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                final int b = read();
+                x |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return x;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        int readSignedVarint() throws IOException {
+            final int x = readVarint();
+            return (x >>> 1) ^ -(x & 1);
+        }
+
+        String readUTF() throws IOException {
+            final int len = readLength(1, "string length");
+            char[] cs = new char[Math.min(len, 1024)]; // grown as chars are read, in case the remaining input is unknown
+            int n = 0;
+            for (int i = 0; i < len; i++) {
+                if (n == cs.length)
+                    cs = Arrays.copyOf(cs, Math.min(len, 2 * n));
+                final int b = read();
+                if ((b & 0x80) == 0)
+                    cs[n++] = (char) b;
+                else if ((b & 0xe0) == 0xc0) {
+                    cs[n++] = (char) (((b & 0x1f) << 6) | (read() & 0x3f));
+                    i++;
+                } else if ((b & 0xf0) == 0xe0) {
+                    cs[n++] = (char) (((b & 0x0f) << 12) | ((read() & 0x3f) << 6) | (read() & 0x3f));
+                    i += 2;
+                } else
+                    throw new IOException("Malformed string");
+            }
+            return new String(cs, 0, n);
+        }
+    }
+
+    private ExtendedStackTraceCodec() {
+    }
+}
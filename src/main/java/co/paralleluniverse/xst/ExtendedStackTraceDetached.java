@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A stack trace that is not backed by a live {@code Throwable}, e.g. one that has been decoded from its serialized form.
+ * Its elements are detached: they carry no {@code Class} or {@code Member}, and the classes they name need not be present.
+ *
+ * @author pron
+ */
+class ExtendedStackTraceDetached extends ExtendedStackTrace {
+    private final ExtendedStackTraceElement[] est;
+    private final List<ExtendedStackTrace> suppressed = new ArrayList<>();
+    private ExtendedStackTrace cause;
+
+    ExtendedStackTraceDetached(String className, String message, ExtendedStackTraceElement[] est) {
+        super(new DetachedThrowable(className, message, est));
+        this.est = est;
+    }
+
+    @Override
+    protected ExtendedStackTraceElement[] resolve() {
+        return est;
+    }
+
+    @Override
+    public ExtendedStackTrace getCause() {
+        return cause;
+    }
+
+    @Override
+    public ExtendedStackTrace[] getSuppressed() {
+        return suppressed.toArray(new ExtendedStackTrace[suppressed.size()]);
+    }
+
+    @Override
+    String getThrowableClassName() {
+        return ((DetachedThrowable) t).className;
+    }
+
+    @Override
+    String getThrowableMessage() {
+        return t.getMessage();
+    }
+
+    void setCause(ExtendedStackTrace cause) {
+        this.cause = cause;
+    }
+
+    void addSuppressed(ExtendedStackTrace suppressed) {
+        this.suppressed.add(suppressed);
+    }
+
+    static class DetachedElement extends ExtendedStackTraceElement {
+        private final String descriptor;
+
+        DetachedElement(String declaringClassName, String methodName, String descriptor, String fileName, int lineNumber, int bci) {
+            super(declaringClassName, methodName, fileName, lineNumber, null, null, bci);
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        String getMethodDescriptor() {
+            return descriptor;
+        }
+    }
+
+    /**
+     * Stands in for the original {@code Throwable}, whose class may not be present.
+     */
+    private static class DetachedThrowable extends Throwable {
+        private static final long serialVersionUID = 1L;
+        final String className;
+
+        DetachedThrowable(String className, String message, ExtendedStackTraceElement[] est) {
+            super(message, null, false, true);
+            this.className = className;
+            final StackTraceElement[] st = new StackTraceElement[est.length];
+            for (int i = 0; i < est.length; i++)
+                st[i] = est[i].getStackTraceElement();
+            setStackTrace(st);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            final String message = getLocalizedMessage();
+            return message != null ? className + ": " + message : className;
+        }
+    }
+}
@@ -13,6 +13,8 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * An element in a stack trace. Each element represents a single stack frame.
@@ -29,6 +31,7 @@ public class ExtendedStackTraceElement {
     private final int bci;
     Class<?> clazz;
     Member /*Executable*/ method;
+    private volatile String string; // cached rendering
 
     public ExtendedStackTraceElement(StackTraceElement ste) {
         this(ste, null, null, -1);
@@ -47,8 +50,8 @@ public class ExtendedStackTraceElement {
         Objects.requireNonNull(methodName, "Method name is null");
         if (clazz != null && !declaringClassName.equals(clazz.getName()))
             throw new IllegalArgumentException("Class name mismatch: " + declaringClassName + ", " + clazz.getName());
-        if (method != null && !methodName.equals(method.getName()))
-            throw new IllegalArgumentException("Method name mismatch: " + methodName + ", " + method.getName());
+        if (method != null && !methodName.equals(ExtendedStackTrace.getName(method)))
+            throw new IllegalArgumentException("Method name mismatch: " + methodName + ", " + ExtendedStackTrace.getName(method));
         this.declaringClassName = declaringClassName;
         this.methodName = methodName;
         this.fileName = fileName;
@@ -126,6 +129,24 @@ public class ExtendedStackTraceElement {
         return lineNumber == -2;
     }
 
+    /**
+     * Returns true if this element is one of the frames through which a continuation is entered -- e.g. the bottom frames of a virtual thread's stack.
+     * Depending on whether hidden frames are shown, there may be several consecutive entry frames; the last of them is the outermost.
+     * Frames below the outermost entry frame, if any, belong to the enclosing continuation or to the carrier thread.
+     */
+    public boolean isContinuationEntry() {
+        if (declaringClassName.startsWith("java.lang.VirtualThread$VThreadContinuation"))
+            return true; // hidden frames between VirtualThread.run and Continuation.enter0
+        switch (declaringClassName) {
+            case "java.lang.VirtualThread":
+                return methodName.equals("run");
+            case "jdk.internal.vm.Continuation":
+                return methodName.equals("enter") || methodName.equals("enter0") || methodName.equals("enterSpecial");
+            default:
+                return false;
+        }
+    }
+
     /**
      * Returns the class containing the execution point represented by this stack trace element.
      */
@@ -147,6 +168,13 @@ public class ExtendedStackTraceElement {
         return method;
     }
 
+    /**
+     * The descriptor of the method, if it is already known; does not attempt to resolve the method.
+     */
+    String getMethodDescriptor() {
+        return method != null ? ExtendedStackTrace.getDescriptor(method) : null;
+    }
+
     /**
      * Converts this extended stack element into a plain {@link StackTraceElement} (obviously with no extended information).
      */
@@ -177,9 +205,29 @@ public class ExtendedStackTraceElement {
 
     @Override
     public String toString() {
-        final StringBuilder sb = new StringBuilder();
+        String s = string;
+        if (s == null) {
+            final Member m = method;
+            s = appendTo(new StringBuilder(), m).toString();
+            if (m != null)
+                string = s; // the rendering no longer changes once the method is known
+        }
+        return s;
+    }
+
+    /**
+     * Appends this element's rendering, as returned by {@link #toString()}, to the given {@code StringBuilder}.
+     */
+    StringBuilder appendTo(StringBuilder sb) {
+        final String s = string;
+        if (s != null)
+            return sb.append(s);
+        return appendTo(sb, method);
+    }
+
+    private StringBuilder appendTo(StringBuilder sb, Member method) {
         if (method != null)
-            sb.append(toString(method));
+            sb.append(getSignature(method));
         else
             sb.append(getClassName()).append('.').append(methodName);
         sb.append(' ');
@@ -197,7 +245,27 @@ public class ExtendedStackTraceElement {
                 sb.append(" bci: ").append(bci);
             sb.append(')');
         }
-        return sb.toString();
+        return sb;
+    }
+
+    /*
+     * Rendered method signatures, cached per method. The cache is attached to the method's declaring class, so it does not keep the class from being unloaded.
+     */
+    private static final ClassValue<ConcurrentMap<Member, String>> SIGNATURES = new ClassValue<ConcurrentMap<Member, String>>() {
+        @Override
+        protected ConcurrentMap<Member, String> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    static String getSignature(Member method) {
+        final ConcurrentMap<Member, String> signatures = SIGNATURES.get(method.getDeclaringClass());
+        String signature = signatures.get(method);
+        if (signature == null) {
+            signature = toString(method);
+            signatures.putIfAbsent(method, signature);
+        }
+        return signature;
     }
 
     private static String toString(Member method) {
@@ -206,9 +274,12 @@ public class ExtendedStackTraceElement {
                 .append('.')
                 .append(method.getName());
         sb.append('(');
-        for (Class<?> type : getParameterTypes(method))
-            sb.append(getTypeName(type)).append(','); //.getTypeName()
-        sb.delete(sb.length() - 1, sb.length());
+        final Class<?>[] types = getParameterTypes(method);
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(getTypeName(types[i])); //.getTypeName()
+        }
         sb.append(')');
 
         return sb.toString();
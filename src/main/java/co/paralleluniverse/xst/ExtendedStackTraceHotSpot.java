@@ -16,11 +16,14 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * This classes uses internal HotSpot data to retrieve a more detailed stacktrace from a {@link Throwable}.
  *
- * Works only on HotSpot, versions 8 and 9.
+ * Works only on HotSpot, versions 8 and up (the backtrace layouts of JDK 8 through 21 are known).
+ * The layout, as well as the offsets of the internal fields used, are detected and verified when the class is initialized;
+ * if verification fails, the class fails to initialize.
  *
  * @author pron
  */
@@ -29,7 +32,8 @@ class ExtendedStackTraceHotSpot extends ExtendedStackTrace {
      * hotspot/src/share/vm/classfile/javaClasses.hpp
      * hotspot/src/share/vm/classfile/javaClasses.cpp
      */
-    private ExtendedStackTraceElement[] est;
+    private StackTraceElement[] stackTrace; // used only when Throwable.getStackTraceElement(int) is unavailable (JDK 9+)
+    private int consistent; // 0 - unknown; 1 - the stack trace matches the backtrace; -1 - it does not
 
     ExtendedStackTraceHotSpot(Throwable t) {
         super(t);
@@ -37,13 +41,33 @@ class ExtendedStackTraceHotSpot extends ExtendedStackTrace {
 
     @Override
     public Iterator<ExtendedStackTraceElement> iterator() {
+        if (!isConsistent())
+            return super.iterator();
+        return iterator(0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Iterator<ExtendedStackTraceElement> iterator(final int from, final int to) {
+        if (!isConsistent())
+            return super.iterator(from, to);
+        if (from < 0 || from > to)
+            throw new IndexOutOfBoundsException("from: " + from + ", to: " + to);
         return new Iterator<ExtendedStackTraceElement>() {
             private Object chunk = getBacktrace(t);
             private int j = -1;
-            private int i = -1;
+            private int i = from - 1;
+
+            {
+                // skip whole chunks up to the first frame
+                for (int k = from / TRACE_CHUNK_SIZE; k > 0 && chunk != null; k--)
+                    chunk = getNext(chunk);
+                j = from % TRACE_CHUNK_SIZE - 1;
+            }
 
             @Override
             public boolean hasNext() {
+                if (chunk == null || i + 1 >= to)
+                    return false;
                 if (j + 1 >= TRACE_CHUNK_SIZE) {
                     j = -1;
                     chunk = getNext(chunk);
@@ -57,7 +81,9 @@ class ExtendedStackTraceHotSpot extends ExtendedStackTrace {
 
             @Override
             public ExtendedStackTraceElement next() {
-                return getStackTraceElement(getStackTraceElement0(++i), chunk, ++j);
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return getStackTraceElement(++i, chunk, ++j);
             }
 
             @Override
@@ -68,20 +94,104 @@ class ExtendedStackTraceHotSpot extends ExtendedStackTrace {
     }
 
     @Override
-    public ExtendedStackTraceElement[] get() {
-        synchronized (this) {
-            if (est == null) {
-                est = new ExtendedStackTraceElement[getStackTraceDepth()];
-                int i = 0;
-                for (ExtendedStackTraceElement e : this)
-                    est[i++] = e;
+    public int depth() {
+        if (!isConsistent())
+            return super.depth();
+        return getStackTraceDepth();
+    }
+
+    @Override
+    protected ExtendedStackTraceElement[] resolve() {
+        if (!isConsistent())
+            return super.resolve();
+        final int depth = getStackTraceDepth();
+        final ExtendedStackTraceElement[] est = new ExtendedStackTraceElement[depth];
+        // in deep stack traces, repeated frames are found by their class, method slot and bci, and share a single element
+        final boolean share = depth >= FrameCycles.MIN_SHARED_DEPTH;
+        final Class<?>[] classes = share ? new Class<?>[FrameCycles.MAX_PERIOD] : null;
+        final long[] points = share ? new long[FrameCycles.MAX_PERIOD] : null;
+        int period = 0;
+        Object chunk = getBacktrace(t);
+        for (int i = 0, j = 0; i < depth; i++, j++) {
+            if (j == TRACE_CHUNK_SIZE) {
+                chunk = getNext(chunk);
+                j = 0;
+            }
+            if (share) {
+                final Class<?> c = getDeclaringClass(chunk, j);
+                final long point = (long) (getMethod(chunk, j) & 0xffff) << 32 | (getBciAndVersion(chunk, j) & 0xffffffffL); // the version tells apart redefined methods
+                period = FrameCycles.findRepeat(classes, points, i, c, point, period);
+                classes[i % FrameCycles.MAX_PERIOD] = c;
+                points[i % FrameCycles.MAX_PERIOD] = point;
+                if (period > 0) {
+                    est[i] = est[i - period];
+                    continue;
+                }
+            }
+            est[i] = getStackTraceElement(i, chunk, j);
+        }
+        return est;
+    }
+
+    @Override
+    ExtendedStackTraceElement[] resolveShared() {
+        return isConsistent() ? resolve() : super.resolveShared(); // resolve shares repeated frames itself
+    }
+
+    /**
+     * Whether the {@code Throwable}'s stack trace corresponds to its backtrace.
+     * It may not if the stack trace has been set with {@link Throwable#setStackTrace(StackTraceElement[]) setStackTrace}.
+     */
+    private boolean isConsistent() {
+        if (consistent != 0)
+            return consistent > 0;
+        final boolean c = isBacktraceConsistent(t);
+        if (isStackTraceAssigned(t))
+            consistent = c ? 1 : -1; // otherwise, the stack trace may still be set
+        return c;
+    }
+
+    /**
+     * Whether the given {@code Throwable}'s stack trace has been read or set.
+     */
+    static boolean isStackTraceAssigned(Throwable t) {
+        final Object st = UNSAFE.getObject(t, STACK_TRACE_FIELD_OFFSET);
+        return st != null && st != UNASSIGNED_STACK;
+    }
+
+    /**
+     * Whether the given {@code Throwable} has a backtrace, and its stack trace -- if it has been read or set -- corresponds to it.
+     * Does not create the stack trace if it has not yet been read.
+     */
+    static boolean isBacktraceConsistent(Throwable t) {
+        final Object chunk = getBacktrace(t);
+        if (chunk == null)
+            return false; // not writable, deserialized, or not filled in
+        final Object st = UNSAFE.getObject(t, STACK_TRACE_FIELD_OFFSET);
+        if (st == null || st == UNASSIGNED_STACK)
+            return true; // the stack trace will be created from the backtrace when it is first read
+        return st instanceof StackTraceElement[] && isConsistent(chunk, (StackTraceElement[]) st);
+    }
+
+    private static boolean isConsistent(Object chunk, StackTraceElement[] st) {
+        if (getStackTraceDepth(chunk) != st.length)
+            return false;
+        for (int i = 0, j = 0; i < st.length; i++, j++) {
+            if (j == TRACE_CHUNK_SIZE) {
+                chunk = getNext(chunk);
+                j = 0;
             }
-            return est;
+            if (!getDeclaringClass(chunk, j).getName().equals(st[i].getClassName()))
+                return false;
         }
+        return true;
     }
 
     private int getStackTraceDepth() {
-        Object chunk = getBacktrace(t);
+        return getStackTraceDepth(getBacktrace(t));
+    }
+
+    private static int getStackTraceDepth(Object chunk) {
         int depth = 0;
         if (chunk != null) {
             // Iterate over chunks and count full ones
@@ -101,7 +211,6 @@ class ExtendedStackTraceHotSpot extends ExtendedStackTrace {
                 depth++;
             }
         }
-        assert depth == getStackTraceDepth0();
         return depth;
     }
 
@@ -113,22 +222,32 @@ class ExtendedStackTraceHotSpot extends ExtendedStackTrace {
             chunk = getNext(chunk);
             skipChunks--;
         }
-        return getStackTraceElement(getStackTraceElement0(i), chunk, j);
+        return getStackTraceElement(i, chunk, j);
     }
 
-    private ExtendedStackTraceElement getStackTraceElement(StackTraceElement ste, Object chunk, int j) {
-        return new HotSpotExtendedStackTraceElement(ste, getDeclaringClass(chunk, j), getMethod(chunk, j), getBci(chunk, j));
+    /**
+     * Returns the {@code i}th element, which is the {@code j}th frame of the given chunk.
+     * On JDK 9+, unless the stack trace has already been created, the element is built from the backtrace and the class's method and line indexes,
+     * as creating the stack trace would resolve all frames.
+     */
+    private ExtendedStackTraceElement getStackTraceElement(int i, Object chunk, int j) {
+        final Class<?> clazz = getDeclaringClass(chunk, j);
+        final int slot = getMethod(chunk, j);
+        final int bci = getBci(chunk, j);
+        if (getStackTraceElement == null && stackTrace == null && !isStackTraceAssigned(t)) {
+            final MethodIndex mi = MethodIndex.of(clazz);
+            final Member m = mi.getMemberBySlot(slot);
+            final LineIndex li = mi.getLineIndex();
+            if (m != null && li != LineIndex.EMPTY) // otherwise (e.g. a static initializer, or a class without a class file), only the JVM knows
+                return new HotSpotExtendedStackTraceElement(clazz, m, li.sourceFile, mi.getLineNumber(slot, bci), slot, bci);
+        }
+        return new HotSpotExtendedStackTraceElement(getStackTraceElement0(i), clazz, slot, bci);
     }
 
     @Override
     protected Member getMethod(ExtendedStackTraceElement este) {
         final HotSpotExtendedStackTraceElement heste = (HotSpotExtendedStackTraceElement) este;
-        Member[] ms = getMethods(heste.getDeclaringClass());
-        for (Member m : ms) {
-            if (heste.methodSlot == getSlot(m))
-                return m;
-        }
-        return null;
+        return MethodIndex.of(heste.getDeclaringClass()).getMemberBySlot(heste.methodSlot);
     }
 
     private class HotSpotExtendedStackTraceElement extends BasicExtendedStackTraceElement {
@@ -138,11 +257,149 @@ class ExtendedStackTraceHotSpot extends ExtendedStackTrace {
             super(ste, clazz, null, bci);
             this.methodSlot = methodSlot;
         }
+
+        HotSpotExtendedStackTraceElement(Class<?> clazz, Member method, String fileName, int lineNumber, int methodSlot, int bci) {
+            super(clazz.getName(), getName(method), fileName, lineNumber, clazz, method, bci);
+            this.methodSlot = methodSlot;
+        }
+    }
+
+    @Override
+    long fingerprint() {
+        return fingerprint(t);
+    }
+
+    /**
+     * Computes the fingerprint directly from the backtraces of the given {@code Throwable} and its causes, without materializing their stack traces.
+     * The stack traces of {@code Throwable}s without a backtrace, or whose stack trace has been set, are fingerprinted from their elements.
+     */
+    static long fingerprint(Throwable t) {
+        long h = 0;
+        int n = 0;
+        for (Throwable c = t; c != null && n < MAX_FINGERPRINTED_CAUSES; c = c.getCause(), n++)
+            h = mix(h, backtraceFingerprint(c));
+        return h;
+    }
+
+    private static long backtraceFingerprint(Throwable t) {
+        if (!isBacktraceConsistent(t))
+            return new ExtendedStackTrace(t).framesFingerprint();
+        long h = t.getClass().getName().hashCode();
+        for (Object chunk = getBacktrace(t); chunk != null; chunk = getNext(chunk)) {
+            for (int j = 0; j < TRACE_CHUNK_SIZE; j++) {
+                final Class<?> c = getDeclaringClass(chunk, j);
+                if (c == null)
+                    return h;
+                h = mix(h, System.identityHashCode(c));
+                h = mix(h, ((long) getMethod(chunk, j) << 32) | (getBci(chunk, j) & 0xffffffffL));
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Whether the backtraces of the given {@code Throwable}s record the same frames.
+     * The {@code Throwable}s' stack traces must not have been set.
+     */
+    static boolean isSameBacktrace(Throwable a, Throwable b) {
+        Object ca = getBacktrace(a);
+        Object cb = getBacktrace(b);
+        if (ca == null || cb == null)
+            return false;
+        for (; ca != null && cb != null; ca = getNext(ca), cb = getNext(cb)) {
+            for (int j = 0; j < TRACE_CHUNK_SIZE; j++) {
+                final Class<?> c = getDeclaringClass(ca, j);
+                if (c != getDeclaringClass(cb, j))
+                    return false;
+                if (c == null)
+                    return true;
+                if (getMethod(ca, j) != getMethod(cb, j) || getBci(ca, j) != getBci(cb, j))
+                    return false;
+            }
+        }
+        return ca == cb;
+    }
+
+    /**
+     * Captures the current thread's stack into the given buffer, without resolving it.
+     *
+     * @param skip the number of frames to skip, not including this method's
+     */
+    static void capture(FrameBuffer buf, int skip) {
+        buf.clear();
+        buf.probe.fillInStackTrace();
+        copy(buf.probe, buf, skip + 1); // this method
+    }
+
+    /**
+     * Copies the given {@code Throwable}'s backtrace into the given buffer, without resolving it.
+     * Fails, leaving the buffer empty, if the {@code Throwable} has no backtrace, or its stack trace has been set to something else.
+     */
+    static boolean copy(Throwable t, FrameBuffer buf) {
+        buf.clear();
+        if (!isBacktraceConsistent(t))
+            return false;
+        copy(t, buf, 0);
+        return true;
+    }
+
+    private static void copy(Throwable t, FrameBuffer buf, int skip) {
+        buf.source = t;
+        buf.skip = skip;
+        final int capacity = buf.capacity();
+        int n = 0;
+        int i = 0;
+        chunks:
+        for (Object chunk = getBacktrace(t); chunk != null; chunk = getNext(chunk)) {
+            for (int j = 0; j < TRACE_CHUNK_SIZE; j++, i++) {
+                final Class<?> c = getDeclaringClass(chunk, j);
+                if (c == null)
+                    break chunks;
+                if (i < skip)
+                    continue;
+                if (n == capacity) {
+                    buf.truncated = true;
+                    break chunks;
+                }
+                buf.set(n++, c, getMethod(chunk, j), getBci(chunk, j));
+            }
+        }
+        buf.size = n;
+    }
+
+    /**
+     * Returns the class of the top frame of the given {@code Throwable}'s backtrace, or {@code null} if it has none.
+     */
+    static Class<?> getTopDeclaringClass(Throwable t) {
+        final Object chunk = getBacktrace(t);
+        return chunk != null ? getDeclaringClass(chunk, 0) : null;
+    }
+
+    /**
+     * Returns the method slot of the top frame of the given {@code Throwable}'s backtrace.
+     * Must only be called if {@link #getTopDeclaringClass(Throwable)} is not {@code null}.
+     */
+    static int getTopMethodSlot(Throwable t) {
+        return getMethod(getBacktrace(t), 0);
+    }
+
+    /**
+     * Returns the bytecode index of the top frame of the given {@code Throwable}'s backtrace.
+     * Must only be called if {@link #getTopDeclaringClass(Throwable)} is not {@code null}.
+     */
+    static int getTopBci(Throwable t) {
+        return getBci(getBacktrace(t), 0);
     }
 
-    private int getStackTraceDepth0() {
+    /**
+     * Returns the name of the method of the {@code i}th frame of the given {@code Throwable}, as the JVM reports it.
+     * Used for frames whose method cannot be found by its slot, e.g. static initializers; on JDK 9+, this creates the {@code Throwable}'s whole stack trace.
+     */
+    static String getMethodName(Throwable t, int i) {
+        if (getStackTraceElement == null)
+            return t.getStackTrace()[i].getMethodName();
         try {
-            return (Integer) getStackTraceDepth.invoke(t);
+            return ((StackTraceElement) getStackTraceElement.invoke(t, i)).getMethodName();
         } catch (IllegalAccessException e) {
             throw new AssertionError(e);
         } catch (InvocationTargetException e) {
@@ -151,6 +408,8 @@ class ExtendedStackTraceHotSpot extends ExtendedStackTrace {
     }
 
     private StackTraceElement getStackTraceElement0(int i) {
+        if (getStackTraceElement == null)
+            return getStackTrace0()[i];
         try {
             return (StackTraceElement) getStackTraceElement.invoke(t, i);
         } catch (IllegalAccessException e) {
@@ -160,80 +419,123 @@ class ExtendedStackTraceHotSpot extends ExtendedStackTrace {
         }
     }
 
-    private static int getSlot(/*Executable*/Member m) {
-        try {
-            if (m instanceof Constructor)
-                return ctorSlot.getInt((Constructor) m);
-            else if (m instanceof Field)
-                return fieldSlot.getInt((Field) m);
-            return methodSlot.getInt((Method) m);
-        } catch (IllegalAccessException e) {
-            throw new AssertionError(e);
-        }
+    private StackTraceElement[] getStackTrace0() {
+        if (stackTrace == null)
+            stackTrace = t.getStackTrace();
+        return stackTrace;
+    }
+
+    static int getSlot(/*Executable*/Member m) {
+        if (m instanceof Constructor)
+            return UNSAFE.getInt(m, CTOR_SLOT_OFFSET);
+        return UNSAFE.getInt(m, METHOD_SLOT_OFFSET);
     }
 
     private static Object getBacktrace(Throwable t) {
-        // the JVM blocks access to Throwable.backtrace via reflection
+        // the JVM may block access to Throwable.backtrace via reflection
         return (Object[]) UNSAFE.getObject(t, BACKTRACE_FIELD_OFFSET);
-//        try {
-//            return (Object[]) backtrace.get(t);
-//        } catch (IllegalAccessException e) {
-//            throw new AssertionError(e);
-//        }
     }
 
     private static Class<?> getDeclaringClass(Object chunk, int j) {
-        return (Class<?>) ((Object[]) ((Object[]) chunk)[TRACE_CLASSES_OFFSET])[j];
+        return (Class<?>) ((Object[]) ((Object[]) chunk)[TRACE_MIRRORS_OFFSET])[j];
     }
 
     private static short getMethod(Object chunk, int j) {
-        return ((short[]) ((Object[]) chunk)[TRACE_METHOD_OFFSET])[j];
+        return ((short[]) ((Object[]) chunk)[TRACE_METHODS_OFFSET])[j];
+    }
+
+    private static int getBci(Object chunk, int j) {
+        return getBciAndVersion(chunk, j) >>> 16; // unsigned short
     }
 
-    private static short getBci(Object chunk, int j) {
-        int bciAndVersion = ((int[]) ((Object[]) chunk)[TRACE_BCIS_OFFSET])[j];
-        short bci = (short) (bciAndVersion >>> 16);
-        short version = (short) (bciAndVersion & 0xffff);
-        return bci;
+    /**
+     * The bytecode index in the high 16 bits, and the version of the class (incremented when it is redefined) in the low 16 bits.
+     */
+    private static int getBciAndVersion(Object chunk, int j) {
+        return ((int[]) ((Object[]) chunk)[TRACE_BCIS_OFFSET])[j];
     }
 
     private static Object getNext(Object chunk) {
-        return (Object[]) ((Object[]) chunk)[((Object[]) chunk).length - 1];
+        return (Object[]) ((Object[]) chunk)[TRACE_NEXT_OFFSET];
+    }
+
+    /**
+     * Describes the layout of a backtrace chunk: an array of arrays, each containing trace_chunk_size elements, and a pointer to the next chunk.
+     */
+    private static final class Layout {
+        final String name;
+        final int methods; // shorts -- index into class's methods; should be equal to Method.slot
+        final int bcis;    // ints -- bci in the high 16 bits, class version in the low 16 bits
+        final int mirrors; // object array containing classes
+        final int names;   // JDK 8: shorts -- index into constant pool (method name if method is null); JDK 9+: Symbol pointers (ints or longs)
+        final boolean symbolNames; // whether names are Symbol pointers
+        final int conts;   // JDK 19+: object array containing continuation scopes, or null if there are none; -1 if absent
+        final int next;    // points to next chunk
+        final int size;    // chunk length; includes the trailing hidden-frames marker in JDK 15+ layouts
+
+        Layout(String name, int methods, int bcis, int mirrors, int names, boolean symbolNames, int conts, int next, int size) {
+            this.name = name;
+            this.methods = methods;
+            this.bcis = bcis;
+            this.mirrors = mirrors;
+            this.names = names;
+            this.symbolNames = symbolNames;
+            this.conts = conts;
+            this.next = next;
+            this.size = size;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
     }
 
-    // array of arrays; each content array contains trace_chunck_size elements. trace_next_offset points to next array of arrays
-    private static final long BACKTRACE_FIELD_OFFSET; // 
-    private static final int TRACE_METHOD_OFFSET = 0;  // shorts -- index into class's methods; should be equal to Method.slot
-    private static final int TRACE_BCIS_OFFSET = 1;    // ints 
-    private static final int TRACE_CLASSES_OFFSET = 2; // object array containing classes
-    // private static final int TRACE_CPREFS_OFFSET = 3; // short -- index into constant pool: method name if method is null
-    // private static final int TRACE_NEXT_OFFSET = 4; // this elements points to next array of arrays
+    private static final Layout[] LAYOUTS = {
+        new Layout("JDK 8", 0, 1, 2, 3, false, -1, 4, 5),
+        new Layout("JDK 9-14", 0, 1, 2, 3, true, -1, 4, 5),
+        new Layout("JDK 15-18", 0, 1, 2, 3, true, -1, 4, 6),
+        new Layout("JDK 19+", 0, 1, 2, 3, true, 4, 5, 7),};
+
     private static final int TRACE_CHUNK_SIZE = 32; // maximum num of elements in each array
+    private static final long BACKTRACE_FIELD_OFFSET;
+    private static final long STACK_TRACE_FIELD_OFFSET;
+    private static final Object UNASSIGNED_STACK; // the value of Throwable.stackTrace before the stack trace is first read
+    private static final int TRACE_METHODS_OFFSET;
+    private static final int TRACE_BCIS_OFFSET;
+    private static final int TRACE_MIRRORS_OFFSET;
+    private static final int TRACE_NEXT_OFFSET;
+    private static final Layout LAYOUT;
 
-    // private static final Field backtrace; // the JVM blocks access to Throwable.backtrace via reflection
-    private static final Method getStackTraceDepth;
-    private static final Method getStackTraceElement;
-    private static final Field methodSlot;
-    private static final Field ctorSlot;
-    private static final Field fieldSlot;
+    private static final Method getStackTraceDepth;   // JDK 8 only
+    private static final Method getStackTraceElement; // JDK 8 only
+    private static final long METHOD_SLOT_OFFSET;
+    private static final long CTOR_SLOT_OFFSET;
     private static final sun.misc.Unsafe UNSAFE = UtilUnsafe.getUnsafe();
 
     static {
         try {
-            final String javaVersion = System.getProperty("java.version");
-            if (!javaVersion.startsWith("1.8") && !javaVersion.startsWith("8.") && !javaVersion.startsWith("1.9") && !javaVersion.startsWith("9."))
-                throw new IllegalStateException("UnsupportedJavaVersion");
-            if (!System.getProperty("java.vm.name").toLowerCase().contains("hotspot"))
+            final String vmName = System.getProperty("java.vm.name");
+            if (!vmName.contains("HotSpot") && !vmName.contains("OpenJDK"))
                 throw new IllegalStateException("Not HotSpot");
-            // the JVM blocks access to Throwable.backtrace via reflection
-            // backtrace = ReflectionUtil.accessible(Throwable.class.getDeclaredField("backtrace"));
-            getStackTraceDepth = accessible(Throwable.class.getDeclaredMethod("getStackTraceDepth"));
-            getStackTraceElement = accessible(Throwable.class.getDeclaredMethod("getStackTraceElement", int.class));
-            methodSlot = accessible(Method.class.getDeclaredField("slot"));
-            ctorSlot = accessible(Constructor.class.getDeclaredField("slot"));
-            fieldSlot = accessible(Field.class.getDeclaredField("slot"));
+            getStackTraceDepth = accessible(getDeclaredMethod(Throwable.class, "getStackTraceDepth"));
+            getStackTraceElement = accessible(getDeclaredMethod(Throwable.class, "getStackTraceElement", int.class));
+
+            final long[] slotOffsets = getSlotOffsets();
+            METHOD_SLOT_OFFSET = slotOffsets[0];
+            CTOR_SLOT_OFFSET = slotOffsets[1];
 
-            BACKTRACE_FIELD_OFFSET = guessBacktraceFieldOffset();
+            BACKTRACE_FIELD_OFFSET = getBacktraceFieldOffset();
+            STACK_TRACE_FIELD_OFFSET = UNSAFE.objectFieldOffset(Throwable.class.getDeclaredField("stackTrace"));
+            UNASSIGNED_STACK = UNSAFE.getObject(new Throwable(), STACK_TRACE_FIELD_OFFSET);
+            if (!(UNASSIGNED_STACK instanceof StackTraceElement[]) || ((StackTraceElement[]) UNASSIGNED_STACK).length != 0)
+                throw new IllegalStateException("Unfamiliar Throwable.stackTrace: " + UNASSIGNED_STACK);
+
+            LAYOUT = detectLayout();
+            TRACE_METHODS_OFFSET = LAYOUT.methods;
+            TRACE_BCIS_OFFSET = LAYOUT.bcis;
+            TRACE_MIRRORS_OFFSET = LAYOUT.mirrors;
+            TRACE_NEXT_OFFSET = LAYOUT.next;
 
             sanityCheck();
         } catch (Exception e) {
@@ -241,11 +543,33 @@ class ExtendedStackTraceHotSpot extends ExtendedStackTrace {
         }
     }
 
+    private static Method getDeclaredMethod(Class<?> clazz, String name, Class<?>... parameterTypes) {
+        try {
+            return clazz.getDeclaredMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static long getBacktraceFieldOffset() {
+        try {
+            return UNSAFE.objectFieldOffset(Throwable.class.getDeclaredField("backtrace"));
+        } catch (NoSuchFieldException e) {
+            return guessBacktraceFieldOffset();
+        }
+    }
+
     private static long guessBacktraceFieldOffset() {
+        final long fieldSlotOffset;
+        try {
+            fieldSlotOffset = UNSAFE.objectFieldOffset(Field.class.getDeclaredField("slot"));
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("Cannot locate Throwable.backtrace");
+        }
         Field[] fs = Throwable.class.getDeclaredFields();
         Field second = null;
         for (Field f : fs) {
-            if (getSlot(f) == 2) {
+            if (UNSAFE.getInt(f, fieldSlotOffset) == 2) {
                 second = f;
                 break;
             }
@@ -261,18 +585,152 @@ class ExtendedStackTraceHotSpot extends ExtendedStackTrace {
             throw new IllegalStateException("secondOffset: " + secondOffest); // unfamiliar
     }
 
-    private static void sanityCheck() {
-        Throwable t = new Throwable();
-        Object[] chunk = (Object[]) getBacktrace(t);
-        if (((Object[]) chunk[TRACE_CLASSES_OFFSET]).length != TRACE_CHUNK_SIZE)
-            throw new IllegalStateException();
-        if (((short[]) chunk[TRACE_METHOD_OFFSET]).length != TRACE_CHUNK_SIZE)
-            throw new IllegalStateException();
-        if (((int[]) chunk[TRACE_BCIS_OFFSET]).length != TRACE_CHUNK_SIZE)
-            throw new IllegalStateException();
-        final Object[] nextChunk = (Object[]) getNext(chunk);
-        if (nextChunk != null && nextChunk.length != chunk.length)
-            throw new IllegalStateException();
+    /**
+     * Returns the offsets of {@code Method.slot} and {@code Constructor.slot}.
+     * Since JDK 12, the fields are hidden from reflection, so their offsets are found by searching the {@link SlotProbe}'s methods and constructors
+     * for the int fields whose values enumerate all of the class's methods.
+     */
+    private static long[] getSlotOffsets() {
+        try {
+            return new long[]{
+                UNSAFE.objectFieldOffset(Method.class.getDeclaredField("slot")),
+                UNSAFE.objectFieldOffset(Constructor.class.getDeclaredField("slot"))};
+        } catch (NoSuchFieldException e) {
+        }
+
+        final Method[] ms = SlotProbe.class.getDeclaredMethods();
+        final Constructor<?>[] cs = SlotProbe.class.getDeclaredConstructors();
+        final int total = ms.length + cs.length;
+        for (long mo = MIN_SLOT_OFFSET; mo < MAX_SLOT_OFFSET; mo += 4) {
+            if (!isSlotCandidate(ms, mo, total))
+                continue;
+            for (long co = MIN_SLOT_OFFSET; co < MAX_SLOT_OFFSET; co += 4) {
+                if (!isSlotCandidate(cs, co, total))
+                    continue;
+                final boolean[] seen = new boolean[total];
+                for (Method m : ms)
+                    seen[UNSAFE.getInt(m, mo)] = true;
+                for (Constructor<?> c : cs)
+                    seen[UNSAFE.getInt(c, co)] = true;
+                boolean all = true;
+                for (boolean b : seen)
+                    all &= b;
+                if (all)
+                    return new long[]{mo, co};
+            }
+        }
+        throw new IllegalStateException("Cannot locate Method.slot");
+    }
+
+    private static final long MIN_SLOT_OFFSET = 8;
+    private static final long MAX_SLOT_OFFSET = 64; // well within the size of Method and Constructor objects
+
+    private static boolean isSlotCandidate(Member[] members, long offset, int total) {
+        final boolean[] seen = new boolean[total];
+        for (Member m : members) {
+            final int x = UNSAFE.getInt(m, offset);
+            if (x < 0 || x >= total || seen[x])
+                return false;
+            seen[x] = true;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unused")
+    private static final class SlotProbe {
+        SlotProbe(int x) {
+        }
+
+        SlotProbe(long x) {
+        }
+
+        SlotProbe(String x) {
+        }
+
+        void m0() {
+        }
+
+        void m1() {
+        }
+
+        void m2() {
+        }
+
+        void m3() {
+        }
+    }
+
+    private static Layout detectLayout() {
+        final Throwable t = probe(TRACE_CHUNK_SIZE + 8);
+        final Object backtrace = UNSAFE.getObject(t, BACKTRACE_FIELD_OFFSET);
+        if (!(backtrace instanceof Object[]))
+            throw new IllegalStateException("Unfamiliar backtrace: " + backtrace);
+        for (Layout layout : LAYOUTS) {
+            if (matches(layout, (Object[]) backtrace))
+                return layout;
+        }
+        throw new IllegalStateException("Unfamiliar backtrace layout");
+    }
+
+    private static boolean matches(Layout layout, Object[] chunk) {
+        if (chunk.length != layout.size)
+            return false;
+        if (!isArray(chunk[layout.methods], short[].class)
+                || !isArray(chunk[layout.bcis], int[].class)
+                || !isArray(chunk[layout.mirrors], Object[].class))
+            return false;
+        final Object names = chunk[layout.names];
+        if (layout.symbolNames ? !(isArray(names, int[].class) || isArray(names, long[].class)) : !isArray(names, short[].class))
+            return false;
+        if (layout.conts >= 0 && chunk[layout.conts] != null && !isArray(chunk[layout.conts], Object[].class))
+            return false;
+        final Object next = chunk[layout.next];
+        return next instanceof Object[] && ((Object[]) next).length == layout.size // the probe is deeper than a single chunk
+                && ((Object[]) chunk[layout.mirrors])[0] == ExtendedStackTraceHotSpot.class;
+    }
+
+    private static boolean isArray(Object array, Class<?> type) {
+        return type.isInstance(array) && java.lang.reflect.Array.getLength(array) == TRACE_CHUNK_SIZE;
+    }
+
+    /**
+     * Returns a {@code Throwable} whose top {@code depth + 1} frames are in this method.
+     */
+    private static Throwable probe(int depth) {
+        if (depth > 0)
+            return probe(depth - 1);
+        return new Throwable();
+    }
+
+    /**
+     * Verifies that the backtrace, as read with the detected layout and offsets, agrees with the {@code Throwable}'s stack trace.
+     */
+    private static void sanityCheck() throws NoSuchMethodException {
+        final int probeDepth = TRACE_CHUNK_SIZE + 8;
+        final Throwable t = probe(probeDepth);
+        final StackTraceElement[] st = t.getStackTrace();
+        final Object chunk = getBacktrace(t);
+        if (!isConsistent(chunk, st))
+            throw new IllegalStateException("Backtrace does not match stack trace");
+        if (getStackTraceDepth != null) {
+            try {
+                if ((Integer) getStackTraceDepth.invoke(t) != st.length)
+                    throw new IllegalStateException("Depth mismatch");
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        final int probeSlot = getSlot(ExtendedStackTraceHotSpot.class.getDeclaredMethod("probe", int.class));
+        Object c = chunk;
+        for (int i = 0, j = 0; i <= probeDepth; i++, j++) {
+            if (j == TRACE_CHUNK_SIZE) {
+                c = getNext(c);
+                j = 0;
+            }
+            if (getMethod(c, j) != probeSlot)
+                throw new IllegalStateException("Method slot mismatch at frame " + i + ": " + getMethod(c, j) + ", " + probeSlot);
+        }
     }
 
     //////////////////////////////////////////////////////////////////
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+/**
+ * Notified when stack traces are captured and resolved, for the purpose of monitoring the library's use and cost.
+ * Installed with {@link ExtendedStackTrace#setListener(ExtendedStackTraceListener)}.
+ * <p>
+ * Methods are called on the thread capturing or resolving the stack trace, and should return quickly.
+ *
+ * @author pron
+ */
+public interface ExtendedStackTraceListener {
+    /**
+     * Called when a stack trace has been captured by {@link ExtendedStackTrace#of(Throwable)} or {@link ExtendedStackTrace#here()}.
+     *
+     * @param st    the captured stack trace
+     * @param nanos the time it took to capture the stack trace, in nanoseconds
+     */
+    void captured(ExtendedStackTrace st, long nanos);
+
+    /**
+     * Called when the elements of a stack trace have been created, by the first call to {@link ExtendedStackTrace#get()}.
+     *
+     * @param st    the resolved stack trace
+     * @param depth the number of elements in the stack trace
+     * @param nanos the time it took to resolve the stack trace, in nanoseconds
+     */
+    void resolved(ExtendedStackTrace st, int depth, long nanos);
+}
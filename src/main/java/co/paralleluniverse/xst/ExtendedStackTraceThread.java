@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+/**
+ * A stack trace of a thread other than the current one, captured with {@link Thread#getStackTrace()} or {@link Thread#getAllStackTraces()}.
+ * Classes are resolved lazily, first through the thread's context class loader.
+ * A virtual thread's trace contains only the virtual thread's frames; its description names the carrier thread if it is mounted.
+ *
+ * @author pron
+ */
+class ExtendedStackTraceThread extends ExtendedStackTrace {
+    private final ClassLoader contextClassLoader;
+
+    ExtendedStackTraceThread(Thread thread, StackTraceElement[] st) {
+        super(new ThreadStackTrace(thread, st));
+        this.contextClassLoader = getContextClassLoader(thread);
+    }
+
+    @Override
+    protected Class<?> getDeclaringClass(ExtendedStackTraceElement este) {
+        if (contextClassLoader != null) {
+            try {
+                return Class.forName(este.getClassName(), false, contextClassLoader);
+            } catch (ClassNotFoundException e) {
+            }
+        }
+        return super.getDeclaringClass(este);
+    }
+
+    @Override
+    String getThrowableClassName() {
+        return Thread.class.getName();
+    }
+
+    private static ClassLoader getContextClassLoader(Thread thread) {
+        try {
+            return thread.getContextClassLoader();
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Carries a thread's stack so that it can be treated -- and printed -- like that of a {@code Throwable}.
+     */
+    private static class ThreadStackTrace extends Throwable {
+        private static final long serialVersionUID = 1L;
+
+        ThreadStackTrace(Thread thread, StackTraceElement[] st) {
+            super(isVirtual(thread) ? thread.toString() : "\"" + thread.getName() + "\" " + thread.getState(), null, false, true);
+            setStackTrace(st);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return getMessage();
+        }
+    }
+}
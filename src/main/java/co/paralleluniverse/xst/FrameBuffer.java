@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.lang.reflect.Member;
+import java.util.Arrays;
+
+/**
+ * A reusable buffer of stack frames, filled by {@link ExtendedStackTrace#captureInto(FrameBuffer, int) captureInto}.
+ * <p>
+ * On HotSpot, frames are kept as primitive data -- class, method slot and bytecode index -- in arrays that are reused across captures,
+ * and methods and lines are only looked up when they are requested; once the classes involved have been indexed,
+ * neither capturing nor the lookups allocate (beyond the arrays the JVM itself allocates to record the stack).
+ * Frames that are to be kept should be copied out, with {@link #getElement(int) getElement} or {@link #toStackTrace() toStackTrace},
+ * as the next capture overwrites them.
+ * <p>
+ * A buffer is not thread-safe, and is meant to be kept per thread, e.g. in a {@code ThreadLocal}.
+ *
+ * @author pron
+ */
+public final class FrameBuffer {
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+    final Probe probe = new Probe();
+    final Class<?>[] classes;
+    final int[] slots;
+    final int[] bcis;
+    private final Member[] methods;
+    private final int[] lines;
+    int size;
+    boolean truncated;
+    Throwable source; // the throwable whose backtrace the frames were copied from, on HotSpot
+    int skip;         // the number of the source's top frames left out
+    private ExtendedStackTraceElement[] elements; // when not captured on HotSpot
+    private int offset;
+
+    /**
+     * Creates a buffer for at most the given number of frames.
+     */
+    public FrameBuffer(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must be non-negative: " + capacity);
+        this.classes = new Class<?>[capacity];
+        this.slots = new int[capacity];
+        this.bcis = new int[capacity];
+        this.methods = new Member[capacity];
+        this.lines = new int[capacity];
+    }
+
+    /**
+     * The maximum number of frames the buffer can hold.
+     */
+    public int capacity() {
+        return classes.length;
+    }
+
+    /**
+     * The number of frames captured.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Whether the stack had more frames than the buffer could hold (in which case the bottom frames are missing).
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Returns the class of the {@code i}th frame, counting from the top.
+     */
+    public Class<?> getDeclaringClass(int i) {
+        checkIndex(i);
+        return elements != null ? elements[offset + i].getDeclaringClass() : classes[i];
+    }
+
+    /**
+     * Returns the method of the {@code i}th frame, or {@code null} if it cannot be found.
+     */
+    public Member getMethod(int i) {
+        checkIndex(i);
+        if (elements != null)
+            return elements[offset + i].getMethod();
+        if (methods[i] == null)
+            methods[i] = MethodIndex.of(classes[i]).getMemberBySlot(slots[i]);
+        return methods[i];
+    }
+
+    /**
+     * Returns the bytecode index of the {@code i}th frame.
+     */
+    public int getBytecodeIndex(int i) {
+        checkIndex(i);
+        return elements != null ? elements[offset + i].getBytecodeIndex() : bcis[i];
+    }
+
+    /**
+     * Returns the line number of the {@code i}th frame, {@code -2} if its method is native, or {@code -1} if it is unknown.
+     */
+    public int getLineNumber(int i) {
+        checkIndex(i);
+        if (elements != null)
+            return elements[offset + i].getLineNumber();
+        if (lines[i] == UNKNOWN)
+            lines[i] = MethodIndex.of(classes[i]).getLineNumber(slots[i], bcis[i]);
+        return lines[i];
+    }
+
+    /**
+     * Copies the {@code i}th frame out of the buffer.
+     */
+    public ExtendedStackTraceElement getElement(int i) {
+        checkIndex(i);
+        if (elements != null)
+            return elements[offset + i];
+        final Class<?> clazz = classes[i];
+        final String methodName = getMethodName(i);
+        return new ExtendedStackTraceElement(clazz.getName(), methodName != null ? methodName : "<unknown>",
+                getFileName(i), getLineNumber(i), clazz, getMethod(i), bcis[i]);
+    }
+
+    /**
+     * Returns the name of the method of the {@code i}th frame, or {@code null} if it cannot be found.
+     */
+    String getMethodName(int i) {
+        checkIndex(i);
+        if (elements != null)
+            return elements[offset + i].getMethodName();
+        final Member method = getMethod(i);
+        if (method != null)
+            return ExtendedStackTrace.getName(method);
+        return source != null ? ExtendedStackTraceHotSpot.getMethodName(source, skip + i) : null; // e.g. a static initializer
+    }
+
+    /**
+     * Returns the source file name of the {@code i}th frame, or {@code null} if it is unknown.
+     */
+    String getFileName(int i) {
+        checkIndex(i);
+        return elements != null ? elements[offset + i].getFileName() : MethodIndex.of(classes[i]).getLineIndex().sourceFile;
+    }
+
+    /**
+     * Copies the captured frames out of the buffer into a stack trace.
+     */
+    public ExtendedStackTrace toStackTrace() {
+        final ExtendedStackTraceElement[] est = new ExtendedStackTraceElement[size];
+        for (int i = 0; i < size; i++)
+            est[i] = getElement(i);
+        return new ExtendedStackTraceDetached("java.lang.Exception", "Stack trace", est);
+    }
+
+    /**
+     * A structural hash of the captured frames, which, on HotSpot, does not look up their methods or lines.
+     */
+    long fingerprint() {
+        long h = 0;
+        for (int i = 0; i < size; i++) {
+            if (elements != null) {
+                final ExtendedStackTraceElement e = elements[offset + i];
+                h = ExtendedStackTrace.mix(h, e.getClassName().hashCode());
+                h = ExtendedStackTrace.mix(h, e.getMethodName().hashCode());
+                h = ExtendedStackTrace.mix(h, ((long) e.getLineNumber() << 32) | (e.getBytecodeIndex() & 0xffffffffL));
+            } else {
+                h = ExtendedStackTrace.mix(h, System.identityHashCode(classes[i]));
+                h = ExtendedStackTrace.mix(h, ((long) slots[i] << 32) | (bcis[i] & 0xffffffffL));
+            }
+        }
+        return h;
+    }
+
+    void clear() {
+        Arrays.fill(methods, 0, size, null);
+        Arrays.fill(classes, 0, size, null);
+        size = 0;
+        truncated = false;
+        elements = null;
+        source = null;
+    }
+
+    void set(int i, Class<?> clazz, int slot, int bci) {
+        classes[i] = clazz;
+        slots[i] = slot;
+        bcis[i] = bci;
+        lines[i] = UNKNOWN;
+    }
+
+    void setElements(ExtendedStackTraceElement[] elements, int offset) {
+        this.elements = elements;
+        this.offset = offset;
+        this.size = Math.max(0, Math.min(elements.length - offset, capacity()));
+        this.truncated = elements.length - offset > capacity();
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+    }
+
+    /**
+     * Refilled on each capture, so that capturing does not allocate a new {@code Throwable}.
+     */
+    static final class Probe extends Throwable {
+        private static final long serialVersionUID = 1L;
+
+        Probe() {
+            super(null, null, false, true);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+/**
+ * Detects recursion in stack traces: runs of frames that repeat back to back, as in the deep stacks of a {@code StackOverflowError}.
+ * Only cycles of up to {@link #MAX_PERIOD} frames are detected.
+ *
+ * @author pron
+ */
+final class FrameCycles {
+    static final int MAX_PERIOD = 64;
+    static final int MIN_REPEATS = 3; // the fewest repetitions of a cycle that are printed compressed
+    static final int MIN_SHARED_DEPTH = 128; // shallower stack traces are not worth searching for shared frames
+
+    /**
+     * Replaces each frame that repeats one of the {@link #MAX_PERIOD} frames above it with that frame's element,
+     * so that all occurrences of a frame in a recursive stack trace share a single element, which is resolved only once.
+     * Backends that can compare frames before creating their elements should use {@link #findRepeat(Class[], long[], int, Class, long, int) findRepeat} instead.
+     *
+     * @return the given array
+     */
+    static ExtendedStackTraceElement[] share(ExtendedStackTraceElement[] est) {
+        if (est == null || est.length < MIN_SHARED_DEPTH)
+            return est;
+        int period = 0; // of the last repeated frame; within a cycle, the next frame repeats with the same period
+        for (int i = 1; i < est.length; i++) {
+            if (period > 0 && same(est[i], est[i - period])) {
+                est[i] = est[i - period];
+                continue;
+            }
+            period = 0;
+            final int from = Math.max(0, i - MAX_PERIOD);
+            for (int j = i - 1; j >= from; j--) {
+                if (same(est[i], est[j])) {
+                    est[i] = est[j];
+                    period = i - j;
+                    break;
+                }
+            }
+        }
+        return est;
+    }
+
+    /**
+     * Finds a repetition of frame {@code i}, given as its class and a {@code long} identifying the execution point in it,
+     * among the {@link #MAX_PERIOD} frames above it, which are kept in the given ring buffers of {@code MAX_PERIOD} entries.
+     * Frame {@code i} is not added to the buffers.
+     *
+     * @param last the value returned for the previous frame, which is tried first
+     * @return the distance to the nearest frame that {@code i} repeats, or 0 if there is none
+     */
+    static int findRepeat(Class<?>[] classes, long[] points, int i, Class<?> clazz, long point, int last) {
+        if (last > 0 && repeats(classes, points, i - last, clazz, point))
+            return last;
+        for (int q = 1, max = Math.min(i, MAX_PERIOD); q <= max; q++) {
+            if (repeats(classes, points, i - q, clazz, point))
+                return q;
+        }
+        return 0;
+    }
+
+    private static boolean repeats(Class<?>[] classes, long[] points, int j, Class<?> clazz, long point) {
+        return classes[j % MAX_PERIOD] == clazz && points[j % MAX_PERIOD] == point;
+    }
+
+    /**
+     * Returns the length of the shortest cycle that starts at {@code from} and repeats at least {@link #MIN_REPEATS} times
+     * before {@code to}, or 0 if there is none.
+     */
+    static int findPeriod(ExtendedStackTraceElement[] trace, int from, int to) {
+        final int maxPeriod = Math.min(MAX_PERIOD, (to - from) / MIN_REPEATS);
+        for (int p = 1; p <= maxPeriod; p++) {
+            if (same(trace[from], trace[from + p]) && countRepeats(trace, from, p, to) >= MIN_REPEATS)
+                return p;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of times the cycle of the given period that starts at {@code from} occurs back to back before {@code to}.
+     */
+    static int countRepeats(ExtendedStackTraceElement[] trace, int from, int period, int to) {
+        int i = from + period;
+        while (i < to && same(trace[i], trace[i - period]))
+            i++;
+        return (i - from) / period;
+    }
+
+    private static boolean same(ExtendedStackTraceElement a, ExtendedStackTraceElement b) {
+        if (a == b)
+            return true;
+        return a.clazz == b.clazz
+                && a.getBytecodeIndex() == b.getBytecodeIndex()
+                && a.getLineNumber() == b.getLineNumber()
+                && a.equals(b);
+    }
+
+    private FrameCycles() {
+    }
+}
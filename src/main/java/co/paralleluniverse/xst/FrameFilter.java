@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Selects the stack frames that are left out when a stack trace is printed, e.g. frames of reflection or proxy machinery.
+ * Consecutive filtered frames are printed as a single line telling how many frames have been left out.
+ *
+ * @see ExtendedStackTrace#printStackTrace(StringBuilder, FrameFilter, boolean)
+ * @author pron
+ */
+public abstract class FrameFilter {
+    /**
+     * Returns a filter that leaves out frames of classes in the given packages (or, more generally, whose names start with any of the given prefixes).
+     */
+    public static FrameFilter packages(String... prefixes) {
+        return packages(Arrays.asList(prefixes));
+    }
+
+    /**
+     * Returns a filter that leaves out frames of classes in the given packages (or, more generally, whose names start with any of the given prefixes).
+     */
+    public static FrameFilter packages(Collection<String> prefixes) {
+        return new Packages(prefixes.toArray(new String[prefixes.size()]));
+    }
+
+    /**
+     * Tests whether the given frame should be left out.
+     */
+    public abstract boolean isFiltered(ExtendedStackTraceElement frame);
+
+    private static final class Packages extends FrameFilter {
+        private final String[] prefixes;
+
+        Packages(String[] prefixes) {
+            this.prefixes = prefixes;
+        }
+
+        @Override
+        public boolean isFiltered(ExtendedStackTraceElement frame) {
+            final String className = frame.getClassName();
+            for (String prefix : prefixes) {
+                if (className.startsWith(prefix))
+                    return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Turns raw frames captured elsewhere -- e.g. by JFR, by a profiler or by an agent -- into {@link ExtendedStackTraceElement}s.
+ * A raw frame is made of a class name, a method name, an optional method descriptor and a bytecode index;
+ * the symbolizer finds the frame's {@code Class}, its method and its line.
+ * <p>
+ * Symbolizing shares the per-class indexes used to resolve {@link ExtendedStackTrace}s, so classes already seen in stack traces
+ * (or {@link ExtendedStackTrace#prewarm(java.util.Collection, java.util.concurrent.Executor) prewarmed}) are symbolized cheaply.
+ * Classes are looked up, but not initialized, with the symbolizer's class loader; classes that are found are kept by the symbolizer,
+ * so a symbolizer should not outlive the classes it symbolizes if they are to be unloaded.
+ * <p>
+ * A symbolizer can be used by multiple threads concurrently.
+ *
+ * @author pron
+ */
+public class FrameSymbolizer {
+    private static final Class<?> NOT_FOUND = NotFound.class;
+    private final ClassLoader loader;
+    private final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a symbolizer that looks up classes with the given class loader.
+     *
+     * @param loader the class loader; if {@code null}, the system class loader is used
+     */
+    public FrameSymbolizer(ClassLoader loader) {
+        this.loader = loader != null ? loader : ClassLoader.getSystemClassLoader();
+    }
+
+    /**
+     * Symbolizes a single raw frame.
+     *
+     * @param className  the name of the frame's class; either binary ({@code a.b.C}) or internal ({@code a/b/C})
+     * @param methodName the name of the frame's method
+     * @param descriptor the method's descriptor, or {@code null} if unknown
+     * @param bci        the bytecode index, or a negative number if unknown
+     */
+    public ExtendedStackTraceElement symbolize(String className, String methodName, String descriptor, int bci) {
+        final String name = className.replace('/', '.');
+        final Class<?> clazz = getClass(name);
+        if (clazz == null)
+            return new SymbolizedElement(name, methodName, descriptor, null, -1, null, null, bci);
+
+        final MethodIndex index = MethodIndex.of(clazz);
+        final LineIndex lines = index.getLineIndex();
+        final Member method;
+        if (descriptor != null)
+            method = index.getMember(methodName, descriptor);
+        else {
+            method = index.getMember(methodName);
+            if (method != null)
+                descriptor = ExtendedStackTrace.getDescriptor(method);
+        }
+        final int line;
+        if (method instanceof Method && Modifier.isNative(method.getModifiers()))
+            line = -2;
+        else
+            line = descriptor != null && bci >= 0 ? lines.getLineNumber(methodName, descriptor, bci) : -1;
+        return new SymbolizedElement(name, methodName, descriptor, lines.sourceFile, line, clazz, method, bci);
+    }
+
+    /**
+     * Symbolizes a batch of raw frames, given as parallel arrays.
+     *
+     * @param classNames  the names of the frames' classes; either binary ({@code a.b.C}) or internal ({@code a/b/C})
+     * @param methodNames the names of the frames' methods
+     * @param descriptors the methods' descriptors; may be {@code null}, or contain {@code null}s, if unknown
+     * @param bcis        the bytecode indices; may contain negative numbers if unknown
+     * @return the symbolized frames, in order
+     */
+    public ExtendedStackTraceElement[] symbolize(String[] classNames, String[] methodNames, String[] descriptors, int[] bcis) {
+        final int n = classNames.length;
+        if (methodNames.length != n || (descriptors != null && descriptors.length != n) || bcis.length != n)
+            throw new IllegalArgumentException("Arrays must have equal lengths");
+        final ExtendedStackTraceElement[] est = new ExtendedStackTraceElement[n];
+        for (int i = 0; i < n; i++)
+            est[i] = symbolize(classNames[i], methodNames[i], descriptors != null ? descriptors[i] : null, bcis[i]);
+        return est;
+    }
+
+    private Class<?> getClass(String name) {
+        Class<?> clazz = classes.get(name);
+        if (clazz == null) {
+            try {
+                clazz = Class.forName(name, false, loader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                clazz = NOT_FOUND;
+            }
+            classes.putIfAbsent(name, clazz);
+        }
+        return clazz != NOT_FOUND ? clazz : null;
+    }
+
+    private static class SymbolizedElement extends ExtendedStackTraceElement {
+        private final String descriptor;
+
+        SymbolizedElement(String declaringClassName, String methodName, String descriptor, String fileName, int lineNumber, Class<?> clazz, Member method, int bci) {
+            super(declaringClassName, methodName, fileName, lineNumber, clazz, method, bci);
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        String getMethodDescriptor() {
+            return descriptor;
+        }
+    }
+
+    private static final class NotFound {
+    }
+}
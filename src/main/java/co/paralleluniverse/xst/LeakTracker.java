@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.io.PrintStream;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detects resources that are garbage collected without having been closed, and reports where they were allocated.
+ * <p>
+ * A resource is registered with {@link #track(Object) track} when it is allocated, and the returned {@link Handle} is closed when the resource is closed.
+ * If the resource becomes unreachable while its handle is still open, the leak is reported to the tracker's {@link Listener}
+ * along with the allocation site.
+ * <p>
+ * Only a sample of the resources, chosen by a {@link CaptureSampler}, is tracked, so the tracker can be left on in production.
+ * The stack of a sampled allocation is captured into a per-thread {@link FrameBuffer}, and its site is found by the captured frames' fingerprint;
+ * on HotSpot, this neither creates a stack trace object nor resolves the frames. Only the first allocation at a site copies its frames out of the buffer,
+ * so each site's stack trace is kept just once, no matter how many resources are tracked there, and tracked resources only refer to their site.
+ * Leaks are detected when resources are tracked, or when {@link #poll() poll} is called.
+ * (The JDK's {@code Cleaner} is not used, as this library targets Java 7; the tracker polls a {@code ReferenceQueue} instead.)
+ * <pre>{@code
+ * private static final LeakTracker TRACKER = new LeakTracker(CaptureSampler.everyNth(100), LeakTracker.printingTo(System.err));
+ *
+ * private final LeakTracker.Handle leak = TRACKER.track(this);
+ * ...
+ * public void close() {
+ *     leak.close();
+ *     ...
+ * }
+ * }</pre>
+ *
+ * @author pron
+ */
+public class LeakTracker {
+    /**
+     * Notified when a leak is detected.
+     */
+    public interface Listener {
+        /**
+         * Called when a resource allocated at the given site has been garbage collected without having been closed.
+         *
+         * @param site the resource's allocation site
+         */
+        void leaked(Site site);
+    }
+
+    private static final Handle UNTRACKED = new Handle(null, null, null);
+    private static final int MAX_FRAMES = 256;
+    private final CaptureSampler sampler;
+    private final Listener listener;
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    private final Set<Handle> handles = Collections.newSetFromMap(new ConcurrentHashMap<Handle, Boolean>());
+    private final ConcurrentMap<Long, Site> sites = new ConcurrentHashMap<>();
+    private final ThreadLocal<FrameBuffer> frames = new ThreadLocal<FrameBuffer>() {
+        @Override
+        protected FrameBuffer initialValue() {
+            return new FrameBuffer(MAX_FRAMES);
+        }
+    };
+
+    /**
+     * Returns a listener that prints each leak to the given stream, along with the full stack trace of the first leak at each site.
+     */
+    public static Listener printingTo(final PrintStream out) {
+        return new Listener() {
+            @Override
+            public void leaked(Site site) {
+                out.println("LEAK: a resource allocated at " + site.getAllocationFrame() + " was not closed"
+                        + " (" + site.getLeakedCount() + " of " + site.getTrackedCount() + " tracked resources allocated at this site have leaked)");
+                if (site.getLeakedCount() == 1)
+                    site.getStackTrace().printStackTrace(out);
+            }
+        };
+    }
+
+    /**
+     * Creates a new tracker.
+     *
+     * @param sampler  chooses the resources to track
+     * @param listener notified of leaks, e.g. one returned by {@link #printingTo(PrintStream) printingTo}
+     */
+    public LeakTracker(CaptureSampler sampler, Listener listener) {
+        if (sampler == null)
+            throw new NullPointerException("sampler is null");
+        if (listener == null)
+            throw new NullPointerException("listener is null");
+        this.sampler = sampler;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts tracking the given resource, if it is chosen by the sampler.
+     *
+     * @param resource a newly allocated resource
+     * @return a handle that must be {@link Handle#close() closed} when the resource is closed
+     */
+    public Handle track(Object resource) {
+        poll();
+        final FrameBuffer buf = frames.get();
+        if (!sampler.captureInto(buf, 1)) // leaves out this method
+            return UNTRACKED;
+        final Site site = getSite(buf);
+        buf.clear(); // don't retain the stack's classes
+        site.tracked.incrementAndGet();
+        final Handle handle = new Handle(resource, queue, site);
+        handles.add(handle);
+        return handle;
+    }
+
+    private Site getSite(FrameBuffer buf) {
+        final long fingerprint = buf.fingerprint();
+        Site site = sites.get(fingerprint);
+        if (site == null) {
+            final Site s = sites.putIfAbsent(fingerprint, site = new Site(this, buf.toStackTrace()));
+            if (s != null)
+                site = s;
+        }
+        return site;
+    }
+
+    /**
+     * Reports the leaks detected since the last call.
+     */
+    public void poll() {
+        for (Reference<?> ref; (ref = queue.poll()) != null;) {
+            final Handle handle = (Handle) ref;
+            if (handles.remove(handle)) {
+                handle.site.leaked.incrementAndGet();
+                listener.leaked(handle.site);
+            }
+        }
+    }
+
+    /**
+     * Returns all allocation sites of tracked resources, in no particular order.
+     */
+    public List<Site> getSites() {
+        return new ArrayList<>(sites.values());
+    }
+
+    /**
+     * Tracks a single resource.
+     */
+    public static final class Handle extends PhantomReference<Object> {
+        private final Site site;
+
+        private Handle(Object resource, ReferenceQueue<Object> queue, Site site) {
+            super(resource, queue);
+            this.site = site;
+        }
+
+        /**
+         * Stops tracking the resource. Must be called when the resource is closed; calling it more than once has no effect.
+         */
+        public void close() {
+            if (site == null)
+                return; // untracked
+            clear();
+            if (site.tracker.handles.remove(this))
+                site.closed.incrementAndGet();
+        }
+    }
+
+    /**
+     * An allocation site of tracked resources.
+     */
+    public static final class Site {
+        private final LeakTracker tracker;
+        private final ExtendedStackTrace stackTrace;
+        private final AtomicLong tracked = new AtomicLong();
+        private final AtomicLong closed = new AtomicLong();
+        private final AtomicLong leaked = new AtomicLong();
+
+        Site(LeakTracker tracker, ExtendedStackTrace stackTrace) {
+            this.tracker = tracker;
+            this.stackTrace = stackTrace;
+        }
+
+        /**
+         * The stack trace of the first resource tracked at this site, copied out of the capture buffer.
+         * Its top frame is the method that tracked the resource.
+         */
+        public ExtendedStackTrace getStackTrace() {
+            return stackTrace;
+        }
+
+        /**
+         * The frame that allocated the resources, i.e. the top frame that is not part of the tracker itself.
+         */
+        public ExtendedStackTraceElement getAllocationFrame() {
+            final ExtendedStackTraceElement[] est = stackTrace.get();
+            for (ExtendedStackTraceElement e : est) {
+                if (!isTrackerFrame(e)) {
+                    e.getMethod();
+                    return e;
+                }
+            }
+            return est.length > 0 ? est[est.length - 1] : null;
+        }
+
+        /**
+         * The number of resources tracked at this site.
+         */
+        public long getTrackedCount() {
+            return tracked.get();
+        }
+
+        /**
+         * The number of resources tracked at this site that have been closed.
+         */
+        public long getClosedCount() {
+            return closed.get();
+        }
+
+        /**
+         * The number of resources tracked at this site that have been found to have leaked.
+         */
+        public long getLeakedCount() {
+            return leaked.get();
+        }
+
+        @Override
+        public String toString() {
+            return "Site{" + getAllocationFrame() + ", tracked: " + tracked + ", closed: " + closed + ", leaked: " + leaked + '}';
+        }
+    }
+
+    private static boolean isTrackerFrame(ExtendedStackTraceElement e) {
+        final String className = e.getClassName();
+        return className.equals(LeakTracker.class.getName())
+                || className.startsWith(CaptureSampler.class.getName())
+                || className.startsWith(ExtendedStackTrace.class.getName());
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * The line number tables of a class's methods, as read from its class file.
+ * Used to tell apart overloaded methods by the line executing in them, and to map bytecode indices to lines.
+ *
+ * @author pron
+ */
+final class LineIndex {
+    static final LineIndex EMPTY = new LineIndex(null, new String[0], new String[0], new int[0][]);
+    private static final int[] NO_LINES = new int[0];
+
+    final String sourceFile;
+    final String[] names;
+    final String[] descriptors;
+    final int[][] lines; // for each method: pairs of (start bci, line), sorted by bci
+    private final int[] minLines;
+    private final int[] maxLines;
+
+    LineIndex(String sourceFile, String[] names, String[] descriptors, int[][] lines) {
+        this.sourceFile = sourceFile;
+        this.names = names;
+        this.descriptors = descriptors;
+        this.lines = lines;
+        this.minLines = new int[names.length];
+        this.maxLines = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            for (int j = 1; j < lines[i].length; j += 2) {
+                min = Math.min(min, lines[i][j]);
+                max = Math.max(max, lines[i][j]);
+            }
+            minLines[i] = min;
+            maxLines[i] = max;
+        }
+    }
+
+    /**
+     * Returns the descriptor of the (first) method with the given name whose lines span the given line, or {@code null} if there is none.
+     */
+    String getDescriptor(String name, int line) {
+        for (int i = 0; i < names.length; i++) {
+            if (minLines[i] <= line && maxLines[i] >= line && names[i].equals(name))
+                return descriptors[i];
+        }
+        return null;
+    }
+
+    /**
+     * Returns the line of the given bytecode index in the given method, or {@code -1} if it is unknown.
+     */
+    int getLineNumber(String name, String descriptor, int bci) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name) && descriptors[i].equals(descriptor)) {
+                final int[] ls = lines[i];
+                int line = -1;
+                for (int j = 0; j < ls.length && ls[j] <= bci; j += 2)
+                    line = ls[j + 1];
+                return line;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the line index from a class file.
+     * Only the constant pool, the {@code SourceFile} attribute and the methods' {@code LineNumberTable} attributes are parsed,
+     * so class files of any version are accepted as long as their constant pool has no unfamiliar entries.
+     */
+    static LineIndex read(InputStream is) throws IOException {
+        if (is == null)
+            return EMPTY;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+            if (in.readInt() != 0xCAFEBABE)
+                throw new IOException("Not a class file");
+            in.readUnsignedShort(); // minor version
+            in.readUnsignedShort(); // major version
+            final String[] utf8 = readConstantPool(in);
+            in.readUnsignedShort(); // access flags
+            in.readUnsignedShort(); // this class
+            in.readUnsignedShort(); // super class
+            skip(in, 2 * in.readUnsignedShort()); // interfaces
+
+            for (int n = in.readUnsignedShort(); n > 0; n--) { // fields
+                skip(in, 6);
+                skipAttributes(in);
+            }
+
+            final int methodCount = in.readUnsignedShort();
+            final String[] names = new String[methodCount];
+            final String[] descriptors = new String[methodCount];
+            final int[][] lines = new int[methodCount][];
+            for (int i = 0; i < methodCount; i++) {
+                in.readUnsignedShort(); // access flags
+                names[i] = utf8(utf8, in.readUnsignedShort());
+                descriptors[i] = utf8(utf8, in.readUnsignedShort());
+                lines[i] = NO_LINES;
+                for (int n = in.readUnsignedShort(); n > 0; n--) {
+                    final String attribute = utf8(utf8, in.readUnsignedShort());
+                    final int length = in.readInt();
+                    if ("Code".equals(attribute))
+                        lines[i] = readCode(in, utf8);
+                    else
+                        skip(in, length);
+                }
+            }
+
+            String sourceFile = null;
+            for (int n = in.readUnsignedShort(); n > 0; n--) {
+                final String attribute = utf8(utf8, in.readUnsignedShort());
+                final int length = in.readInt();
+                if ("SourceFile".equals(attribute))
+                    sourceFile = utf8(utf8, in.readUnsignedShort());
+                else
+                    skip(in, length);
+            }
+            return new LineIndex(sourceFile, names, descriptors, lines);
+        }
+    }
+
+    /**
+     * Reads the constant pool, and returns its UTF8 entries by index; other entries are {@code null}.
+     */
+    private static String[] readConstantPool(DataInputStream in) throws IOException {
+        final String[] utf8 = new String[in.readUnsignedShort()];
+        for (int i = 1; i < utf8.length; i++) {
+            final int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    skip(in, 2);
+                    break;
+                case 15: // MethodHandle
+                    skip(in, 3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    skip(in, 4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    skip(in, 8);
+                    i++; // takes two entries
+                    break;
+                default:
+                    throw new IOException("Unfamiliar constant pool tag " + tag + " at entry " + i);
+            }
+        }
+        return utf8;
+    }
+
+    /**
+     * Reads a {@code Code} attribute (following its length), and returns its line number table as sorted (start bci, line) pairs.
+     */
+    private static int[] readCode(DataInputStream in, String[] utf8) throws IOException {
+        skip(in, 4); // max stack, max locals
+        skip(in, in.readInt()); // code
+        skip(in, 8 * in.readUnsignedShort()); // exception table
+        int[] ls = NO_LINES;
+        int k = 0;
+        for (int n = in.readUnsignedShort(); n > 0; n--) {
+            final String attribute = utf8(utf8, in.readUnsignedShort());
+            final int length = in.readInt();
+            if ("LineNumberTable".equals(attribute)) { // there may be more than one
+                final int count = in.readUnsignedShort();
+                ls = Arrays.copyOf(ls, k + 2 * count);
+                for (int j = 0; j < count; j++) {
+                    ls[k++] = in.readUnsignedShort(); // start pc
+                    ls[k++] = in.readUnsignedShort(); // line
+                }
+            } else
+                skip(in, length);
+        }
+        return sort(ls);
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        for (int n = in.readUnsignedShort(); n > 0; n--) {
+            in.readUnsignedShort(); // name
+            skip(in, in.readInt());
+        }
+    }
+
+    private static String utf8(String[] utf8, int index) throws IOException {
+        if (index <= 0 || index >= utf8.length || utf8[index] == null)
+            throw new IOException("Bad constant pool reference " + index);
+        return utf8[index];
+    }
+
+    private static void skip(DataInputStream in, int n) throws IOException {
+        if (n < 0)
+            throw new IOException("Bad length " + n);
+        while (n > 0) {
+            final int skipped = in.skipBytes(n);
+            if (skipped <= 0) {
+                in.readByte(); // throws EOFException at the end of the stream
+                n--;
+            } else
+                n -= skipped;
+        }
+    }
+
+    /**
+     * Sorts (bci, line) pairs by bci. The table is usually already sorted, or nearly so.
+     */
+    private static int[] sort(int[] ls) {
+        for (int i = 2; i < ls.length; i += 2) {
+            final int bci = ls[i], line = ls[i + 1];
+            int j = i - 2;
+            for (; j >= 0 && ls[j] > bci; j -= 2) {
+                ls[j + 2] = ls[j];
+                ls[j + 3] = ls[j + 1];
+            }
+            ls[j + 2] = bci;
+            ls[j + 3] = line;
+        }
+        return ls;
+    }
+}
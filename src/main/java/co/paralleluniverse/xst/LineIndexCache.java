@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+
+/**
+ * A persistent cache of the line number tables that are read from class files to resolve overloaded methods, so that they are not read
+ * again in each run of the application. Installed with {@link ExtendedStackTrace#setLineIndexCache(LineIndexCache)}.
+ * <p>
+ * The cache is kept in a memory-mapped file, and entries are only decoded when they are looked up.
+ * Entries are keyed by class name and by a stamp of the class file: the CRC and size of its JAR entry, as recorded in the JAR's directory,
+ * the modification time and size of a class file in a directory, or the Java runtime's version for the JDK's own classes.
+ * None of these requires reading the class file, which is only read when its entry is missing. When the bytecode changes, so does the stamp,
+ * and the stale entry is no longer found. Classes from other origins are not cached.
+ * <p>
+ * The file may be shared by several processes, and by several caches in the same process, at once. When it fills up, new entries are no longer added;
+ * deleting the file (while no process uses it) clears the cache.
+ *
+ * @author pron
+ */
+public class LineIndexCache implements Closeable {
+    private static final int MAGIC = 0x5853544c; // "XSTL"
+    private static final int VERSION = 3;
+    private static final int MIN_SIZE = 64 * 1024;
+    private static final String JDK_STAMP = System.getProperty("java.home") + '/' + System.getProperty("java.runtime.version");
+    private static final ConcurrentMap<String, Object> MONITORS = new ConcurrentHashMap<>(); // by canonical path
+
+    // header
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int SIZE_OFFSET = 8;
+    private static final int SLOTS_OFFSET = 12;
+    private static final int USED_OFFSET = 16; // end of the last record
+    private static final int HEADER_SIZE = 32;
+
+    private static final int SLOT_SIZE = 8; // int hash, int record offset (0 if empty)
+    private static final int NULL_STRING = 0xffff;
+    /*
+     * record: int length, long stamp, class name, source file, int number of methods,
+     * and for each method: name, descriptor, int number of (bci, line) ints, and the ints.
+     * Strings are a short length followed by modified UTF-8.
+     */
+
+    private final RandomAccessFile file;
+    private final Object monitor; // file locks are held by the whole JVM, so locking must also exclude other caches in this JVM
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private final int slots;
+    private final int recordsOffset;
+
+    /**
+     * Opens the cache kept in the given file, or creates it if the file does not exist or is not a cache of the given size.
+     *
+     * @param file the file to keep the cache in
+     * @param size the size of the file, in bytes
+     */
+    public LineIndexCache(File file, int size) throws IOException {
+        if (size < MIN_SIZE)
+            throw new IllegalArgumentException("size must be at least " + MIN_SIZE + ": " + size);
+        this.size = size;
+        this.slots = Integer.highestOneBit(size / 512);
+        this.recordsOffset = HEADER_SIZE + slots * SLOT_SIZE;
+
+        this.monitor = monitor(file);
+        this.file = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = this.file.getChannel();
+            synchronized (monitor) {
+                final FileLock lock = channel.lock();
+                try {
+                    if (this.file.length() != size) {
+                        this.file.setLength(0);
+                        this.file.setLength(size);
+                    }
+                    this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                    if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION
+                            || buffer.getInt(SIZE_OFFSET) != size || buffer.getInt(SLOTS_OFFSET) != slots)
+                        initialize();
+                } finally {
+                    lock.release();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    private static Object monitor(File file) throws IOException {
+        final Object monitor = new Object();
+        final Object current = MONITORS.putIfAbsent(file.getCanonicalPath(), monitor);
+        return current != null ? current : monitor;
+    }
+
+    private void initialize() {
+        buffer.putInt(MAGIC_OFFSET, 0);
+        for (int p = HEADER_SIZE; p < recordsOffset; p += 4)
+            buffer.putInt(p, 0);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(SIZE_OFFSET, size);
+        buffer.putInt(SLOTS_OFFSET, slots);
+        buffer.putInt(USED_OFFSET, recordsOffset);
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Returns the line index of the given class, from the cache if it is there, or from the class file, in which case it is added to the cache.
+     */
+    LineIndex get(String className, ClassLoader cl) throws IOException {
+        final URL url = cl.getResource(ASMUtil.classToResource(className));
+        if (url == null)
+            return LineIndex.EMPTY;
+        final long stamp = stamp(url);
+        if (stamp == 0)
+            return LineIndex.read(url.openStream());
+
+        final int hash = hash(className, stamp);
+        LineIndex li = find(className, stamp, hash);
+        if (li == null) {
+            li = LineIndex.read(url.openStream());
+            put(className, stamp, hash, li);
+        }
+        return li;
+    }
+
+    private LineIndex find(String className, long stamp, int hash) {
+        final int slot = findSlot(className, stamp, hash);
+        if (slot < 0)
+            return null;
+        try {
+            return decode(buffer.getInt(slot + 4));
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e) {
+            return null; // corrupt
+        }
+    }
+
+    /**
+     * Returns the position of the slot of the given entry, or -1 if it is not in the cache.
+     */
+    private int findSlot(String className, long stamp, int hash) {
+        for (int i = 0, s = hash & (slots - 1); i < slots; i++, s = (s + 1) & (slots - 1)) {
+            final int slot = HEADER_SIZE + s * SLOT_SIZE;
+            final int record = buffer.getInt(slot + 4);
+            if (record == 0)
+                return -1;
+            if (buffer.getInt(slot) == hash && matches(record, className, stamp))
+                return slot;
+        }
+        return -1;
+    }
+
+    private boolean matches(int record, String className, long stamp) {
+        if (record < recordsOffset || record + 14 > size || buffer.getLong(record + 4) != stamp)
+            return false;
+        final int len = buffer.getShort(record + 12) & 0xffff;
+        return record + 14 + len <= size && className.equals(ModifiedUTF8.read(buffer, record + 14, len));
+    }
+
+    private LineIndex decode(int record) {
+        int p = record + 12;
+        p += 2 + (buffer.getShort(p) & 0xffff); // class name
+        final String sourceFile = readString(p);
+        p += 2 + (sourceFile != null ? buffer.getShort(p) & 0xffff : 0);
+        final int n = buffer.getInt(p);
+        p += 4;
+        if (n < 0 || n > size)
+            throw new IllegalArgumentException("Corrupt record");
+        final String[] names = new String[n];
+        final String[] descriptors = new String[n];
+        final int[][] lines = new int[n][];
+        for (int i = 0; i < n; i++) {
+            names[i] = readString(p);
+            p += 2 + (buffer.getShort(p) & 0xffff);
+            descriptors[i] = readString(p);
+            p += 2 + (buffer.getShort(p) & 0xffff);
+            if (names[i] == null || descriptors[i] == null)
+                throw new IllegalArgumentException("Corrupt record");
+            final int m = buffer.getInt(p);
+            p += 4;
+            if (m < 0 || p + 4L * m > size)
+                throw new IllegalArgumentException("Corrupt record");
+            lines[i] = new int[m];
+            for (int j = 0; j < m; j++, p += 4)
+                lines[i][j] = buffer.getInt(p);
+        }
+        return new LineIndex(sourceFile, names, descriptors, lines);
+    }
+
+    private String readString(int p) {
+        final int len = buffer.getShort(p) & 0xffff;
+        if (len == NULL_STRING)
+            return null;
+        if (p + 2 + len > size)
+            throw new IllegalArgumentException("Corrupt record");
+        return ModifiedUTF8.read(buffer, p + 2, len);
+    }
+
+    private void put(String className, long stamp, int hash, LineIndex li) {
+        final int length = recordLength(className, li);
+        if (length < 0)
+            return;
+        synchronized (monitor) {
+            try {
+                final FileLock lock = file.getChannel().lock();
+                try {
+                    append(className, stamp, hash, li, length);
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException | OverlappingFileLockException e) {
+                // the entry is not cached
+            }
+        }
+    }
+
+    /**
+     * Adds the given entry. Must be called while holding the file lock.
+     */
+    private void append(String className, long stamp, int hash, LineIndex li, int length) {
+        if (findSlot(className, stamp, hash) >= 0)
+            return; // added by another process
+        final int record = buffer.getInt(USED_OFFSET);
+        if (record < recordsOffset || (long) record + length > size)
+            return; // full
+        int slot = -1;
+        for (int i = 0, s = hash & (slots - 1); i < slots; i++, s = (s + 1) & (slots - 1)) {
+            if (buffer.getInt(HEADER_SIZE + s * SLOT_SIZE + 4) == 0) {
+                slot = HEADER_SIZE + s * SLOT_SIZE;
+                break;
+            }
+        }
+        if (slot < 0)
+            return; // full
+
+        int p = record;
+        buffer.putInt(p, length);
+        buffer.putLong(p + 4, stamp);
+        p = writeString(p + 12, className);
+        p = writeString(p, li.sourceFile);
+        buffer.putInt(p, li.names.length);
+        p += 4;
+        for (int i = 0; i < li.names.length; i++) {
+            p = writeString(p, li.names[i]);
+            p = writeString(p, li.descriptors[i]);
+            buffer.putInt(p, li.lines[i].length);
+            p += 4;
+            for (int x : li.lines[i]) {
+                buffer.putInt(p, x);
+                p += 4;
+            }
+        }
+        buffer.putInt(USED_OFFSET, record + length);
+        // publish
+        buffer.putInt(slot, hash);
+        buffer.putInt(slot + 4, record);
+    }
+
+    private int writeString(int p, String s) {
+        if (s == null) {
+            buffer.putShort(p, (short) NULL_STRING);
+            return p + 2;
+        }
+        buffer.putShort(p, (short) ModifiedUTF8.length(s));
+        return ModifiedUTF8.write(buffer, p + 2, s);
+    }
+
+    /**
+     * Returns the length of the record for the given entry, or -1 if it cannot be stored.
+     */
+    private static int recordLength(String className, LineIndex li) {
+        long length = 12 + stringLength(className) + stringLength(li.sourceFile) + 4;
+        for (int i = 0; i < li.names.length; i++)
+            length += stringLength(li.names[i]) + stringLength(li.descriptors[i]) + 4 + 4L * li.lines[i].length;
+        return length < Integer.MAX_VALUE ? (int) length : -1;
+    }
+
+    private static long stringLength(String s) {
+        if (s == null)
+            return 2;
+        final int len = ModifiedUTF8.length(s);
+        return len < NULL_STRING ? 2 + len : Integer.MAX_VALUE;
+    }
+
+    private static int hash(String className, long stamp) {
+        final long h = ExtendedStackTrace.mix(className.hashCode(), stamp);
+        return (int) h;
+    }
+
+    /**
+     * Returns a stamp of the class file at the given URL, or 0 if it cannot be stamped.
+     */
+    private static long stamp(URL url) throws IOException {
+        switch (url.getProtocol()) {
+            case "jar":
+                final JarEntry entry = ((JarURLConnection) url.openConnection()).getJarEntry();
+                if (entry != null && entry.getCrc() != -1 && entry.getSize() != -1)
+                    return nonZero(ExtendedStackTrace.mix(entry.getCrc(), entry.getSize()));
+                return 0;
+            case "file":
+                final File file;
+                try {
+                    file = new File(url.toURI());
+                } catch (URISyntaxException | IllegalArgumentException e) {
+                    return 0;
+                }
+                final long modified = file.lastModified();
+                if (modified == 0)
+                    return 0; // the time is unknown
+                return nonZero(ExtendedStackTrace.mix(modified, file.length()));
+            case "jrt":
+                return nonZero(ExtendedStackTrace.mix(JDK_STAMP.hashCode(), JDK_STAMP.length()));
+            default:
+                return 0;
+        }
+    }
+
+    private static long nonZero(long stamp) {
+        return stamp != 0 ? stamp : 1;
+    }
+}
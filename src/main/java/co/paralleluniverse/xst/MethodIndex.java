@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * The per-class information needed to resolve stack frames to methods: the class's declared methods and constructors, and, built on first use,
+ * an index of them by slot (on HotSpot) and the class's {@link LineIndex line index}.
+ * The index is attached to the class, so it does not keep the class from being unloaded.
+ *
+ * @author pron
+ */
+final class MethodIndex {
+    private static final ClassValue<MethodIndex> INDEXES = new ClassValue<MethodIndex>() {
+        @Override
+        protected MethodIndex computeValue(Class<?> type) {
+            return new MethodIndex(type);
+        }
+    };
+
+    static MethodIndex of(Class<?> clazz) {
+        return INDEXES.get(clazz);
+    }
+
+    private final Class<?> clazz;
+    final Member[] members; // constructors, then methods
+    private volatile String[] descriptors; // cache
+    private volatile Member[] bySlot; // cache
+    private volatile LineIndex lines; // cache
+
+    private MethodIndex(Class<?> clazz) {
+        this.clazz = clazz;
+        final Method[] ms = clazz.getDeclaredMethods();
+        final Constructor<?>[] cs = clazz.getDeclaredConstructors();
+        this.members = new Member[ms.length + cs.length];
+        System.arraycopy(cs, 0, members, 0, cs.length);
+        System.arraycopy(ms, 0, members, cs.length, ms.length);
+    }
+
+    /**
+     * Returns the only member with the given name, or {@code null} if there is none or more than one.
+     */
+    Member getMember(String name) {
+        Member method = null;
+        for (Member m : members) {
+            if (name.equals(ExtendedStackTrace.getName(m))) {
+                if (method != null)
+                    return null; // more than one match
+                method = m;
+            }
+        }
+        return method;
+    }
+
+    /**
+     * Returns the member with the given name and descriptor, or {@code null} if there is none.
+     */
+    Member getMember(String name, String descriptor) {
+        final String[] ds = getDescriptors();
+        for (int i = 0; i < members.length; i++) {
+            if (descriptor.equals(ds[i]) && name.equals(ExtendedStackTrace.getName(members[i])))
+                return members[i];
+        }
+        return null;
+    }
+
+    /**
+     * Returns the descriptor of the given member of the class.
+     */
+    String getDescriptor(Member m) {
+        final String[] ds = getDescriptors();
+        for (int i = 0; i < members.length; i++) {
+            if (members[i] == m)
+                return ds[i];
+        }
+        return ExtendedStackTrace.getDescriptor(m);
+    }
+
+    private String[] getDescriptors() {
+        String[] ds = descriptors;
+        if (ds == null)
+            descriptors = ds = getDescriptors(members);
+        return ds;
+    }
+
+    private static String[] getDescriptors(Member[] members) {
+        final String[] ds = new String[members.length];
+        for (int i = 0; i < members.length; i++)
+            ds[i] = ExtendedStackTrace.getDescriptor(members[i]);
+        return ds;
+    }
+
+    /**
+     * Returns the member with the given HotSpot method slot, or {@code null} if there is none.
+     * Must only be called if the {@link ExtendedStackTraceHotSpot HotSpot} backend is available.
+     */
+    Member getMemberBySlot(int slot) {
+        Member[] ms = bySlot;
+        if (ms == null)
+            bySlot = ms = indexBySlot(members);
+        return slot >= 0 && slot < ms.length ? ms[slot] : null;
+    }
+
+    private static Member[] indexBySlot(Member[] members) {
+        int max = -1;
+        for (Member m : members)
+            max = Math.max(max, ExtendedStackTraceHotSpot.getSlot(m));
+        final Member[] ms = new Member[max + 1];
+        for (Member m : members) {
+            final int slot = ExtendedStackTraceHotSpot.getSlot(m);
+            if (slot >= 0)
+                ms[slot] = m;
+        }
+        return ms;
+    }
+
+    /**
+     * Returns the line of the given bytecode index in the method with the given HotSpot slot,
+     * {@code -2} if the method is native, or {@code -1} if the line is unknown.
+     * Does not allocate once the index has been built.
+     */
+    int getLineNumber(int slot, int bci) {
+        final Member m = getMemberBySlot(slot);
+        if (m == null)
+            return -1;
+        if (m instanceof Method && Modifier.isNative(m.getModifiers()))
+            return -2;
+        return getLineIndex().getLineNumber(ExtendedStackTrace.getName(m), getDescriptor(m), bci);
+    }
+
+    /**
+     * Returns the line index of the class, or an empty index if the class file cannot be found or read,
+     * in which case the JVM's own elements supply the frames' lines, where available.
+     */
+    LineIndex getLineIndex() {
+        LineIndex li = lines;
+        if (li == null)
+            lines = li = readLineIndex(clazz);
+        return li;
+    }
+
+    private static LineIndex readLineIndex(Class<?> clazz) {
+        final ClassLoader cl = clazz.getClassLoader() != null ? clazz.getClassLoader() : ClassLoader.getSystemClassLoader();
+        try {
+            final LineIndexCache cache = ExtendedStackTrace.getLineIndexCache();
+            if (cache != null)
+                return cache.get(clazz.getName(), cl);
+            return LineIndex.read(ASMUtil.getClassInputStream(clazz.getName(), cl));
+        } catch (Exception e) {
+            return LineIndex.EMPTY; // not reported; the frames' lines are then taken from the JVM
+        }
+    }
+
+    /**
+     * Builds all parts of the index that would otherwise be built on first use.
+     */
+    void prewarm() {
+        getLineIndex();
+        if (ExtendedStackTrace.HOTSPOT)
+            getMemberBySlot(0);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes strings in the modified UTF-8 of {@link java.io.DataOutput#writeUTF(String) DataOutput.writeUTF}, at absolute positions in a buffer.
+ * The string's length is not written; callers record it in whatever form suits them.
+ *
+ * @author pron
+ */
+final class ModifiedUTF8 {
+    /**
+     * The number of bytes the given string takes.
+     */
+    static int length(String s) {
+        int len = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            len += (c >= 0x0001 && c <= 0x007f) ? 1 : (c > 0x07ff ? 3 : 2);
+        }
+        return len;
+    }
+
+    /**
+     * Writes the given string at the given position, and returns the position following it.
+     */
+    static int write(ByteBuffer buffer, int p, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007f)
+                buffer.put(p++, (byte) c);
+            else if (c > 0x07ff) {
+                buffer.put(p++, (byte) (0xe0 | ((c >> 12) & 0x0f)));
+                buffer.put(p++, (byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put(p++, (byte) (0x80 | (c & 0x3f)));
+            } else {
+                buffer.put(p++, (byte) (0xc0 | ((c >> 6) & 0x1f)));
+                buffer.put(p++, (byte) (0x80 | (c & 0x3f)));
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Reads a string of {@code len} bytes at the given position.
+     */
+    static String read(ByteBuffer buffer, int p, int len) {
+        final char[] cs = new char[len];
+        int n = 0;
+        for (final int end = p + len; p < end;) {
+            final int b = buffer.get(p++) & 0xff;
+            if ((b & 0x80) == 0)
+                cs[n++] = (char) b;
+            else if ((b & 0xe0) == 0xc0)
+                cs[n++] = (char) (((b & 0x1f) << 6) | (buffer.get(p++) & 0x3f));
+            else
+                cs[n++] = (char) (((b & 0x0f) << 12) | ((buffer.get(p++) & 0x3f) << 6) | (buffer.get(p++) & 0x3f));
+        }
+        return new String(cs, 0, n);
+    }
+
+    private ModifiedUTF8() {
+    }
+}
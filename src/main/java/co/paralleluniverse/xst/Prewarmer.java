@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Builds the {@link MethodIndex method indexes} of many classes in parallel.
+ *
+ * @see ExtendedStackTrace#prewarm(Collection, Executor)
+ * @author pron
+ */
+final class Prewarmer {
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final String CLASS_FILE_NAME_EXTENSION = ".class";
+
+    /**
+     * Indexes the given classes.
+     */
+    static Future<Integer> prewarm(Collection<? extends Class<?>> classes, Executor executor) {
+        final Prewarmer p = new Prewarmer(null, executor);
+        p.start(classes.toArray());
+        return p.done;
+    }
+
+    /**
+     * Indexes the classes in the given packages, which are found, loaded and indexed by tasks run by the executor.
+     */
+    static Future<Integer> prewarm(ClassLoader loader, final Collection<String> packages, Executor executor) {
+        final ClassLoader cl = loader != null ? loader : ClassLoader.getSystemClassLoader();
+        final Prewarmer p = new Prewarmer(cl, executor);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        p.start(findClasses(cl, packages).toArray());
+                    } catch (Throwable e) {
+                        p.fail(e);
+                    }
+                }
+            });
+        } catch (Throwable e) { // e.g. rejected
+            p.fail(e);
+        }
+        return p.done;
+    }
+
+    private final ClassLoader loader;
+    private final Executor executor;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger remaining = new AtomicInteger();
+    private final AtomicInteger indexed = new AtomicInteger();
+    private volatile Object[] items; // classes or class names
+    private volatile Throwable failure;
+    private final FutureTask<Integer> done = new FutureTask<>(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+            final Throwable f = failure;
+            if (f instanceof Exception)
+                throw (Exception) f;
+            if (f instanceof Error)
+                throw (Error) f;
+            if (f != null)
+                throw new Exception(f);
+            return indexed.get();
+        }
+    });
+
+    private Prewarmer(ClassLoader loader, Executor executor) {
+        this.loader = loader;
+        this.executor = executor;
+    }
+
+    private void start(Object[] items) {
+        this.items = items;
+        final int n = Math.max(1, Math.min(PARALLELISM, items.length));
+        final Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        };
+        remaining.set(1); // held until all workers have been submitted, so that done is not run before then
+        for (int i = 0; i < n; i++) {
+            remaining.incrementAndGet();
+            try {
+                executor.execute(worker);
+            } catch (Throwable e) { // e.g. rejected
+                remaining.decrementAndGet();
+                if (i == 0)
+                    failure = e; // no worker will index the classes
+                break; // otherwise, the workers already submitted index all of them
+            }
+        }
+        if (remaining.decrementAndGet() == 0)
+            done.run();
+    }
+
+    private void fail(Throwable e) {
+        failure = e;
+        done.run();
+    }
+
+    private void work() {
+        try {
+            final Object[] items = this.items;
+            for (int i; (i = next.getAndIncrement()) < items.length;) {
+                if (index(items[i]))
+                    indexed.incrementAndGet();
+            }
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (remaining.decrementAndGet() == 0)
+                done.run();
+        }
+    }
+
+    private boolean index(Object item) {
+        try {
+            final Class<?> clazz = item instanceof Class ? (Class<?>) item : Class.forName((String) item, false, loader);
+            MethodIndex.of(clazz).prewarm();
+            return true;
+        } catch (ClassNotFoundException | LinkageError | RuntimeException e) {
+            return false; // the class will be indexed (or fail) on first use
+        }
+    }
+
+    private static Set<String> findClasses(ClassLoader loader, Collection<String> packages) throws IOException {
+        final Set<String> classes = new LinkedHashSet<>();
+        for (String pkg : packages) {
+            final String path = ASMUtil.classToSlashed(pkg);
+            for (Enumeration<URL> urls = loader.getResources(path); urls.hasMoreElements();) {
+                final URL url = urls.nextElement();
+                switch (url.getProtocol()) {
+                    case "file":
+                        try {
+                            findClasses(new File(url.toURI()), pkg, classes);
+                        } catch (URISyntaxException e) {
+                            throw new IOException(e);
+                        }
+                        break;
+                    case "jar":
+                        final JarURLConnection conn = (JarURLConnection) url.openConnection();
+                        conn.setUseCaches(false);
+                        try (JarFile jar = conn.getJarFile()) {
+                            for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements();) {
+                                final String name = entries.nextElement().getName();
+                                if (name.startsWith(path + '/') && isClassFile(name))
+                                    classes.add(name.substring(0, name.length() - CLASS_FILE_NAME_EXTENSION.length()).replace('/', '.'));
+                            }
+                        }
+                        break;
+                    default:
+                        // not supported
+                }
+            }
+        }
+        return classes;
+    }
+
+    private static void findClasses(File dir, String pkg, Set<String> classes) {
+        final File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        for (File f : files) {
+            final String name = f.getName();
+            if (f.isDirectory())
+                findClasses(f, pkg + '.' + name, classes);
+            else if (isClassFile(name))
+                classes.add(pkg + '.' + name.substring(0, name.length() - CLASS_FILE_NAME_EXTENSION.length()));
+        }
+    }
+
+    private static boolean isClassFile(String name) {
+        return name.endsWith(CLASS_FILE_NAME_EXTENSION) && !name.endsWith("package-info.class") && !name.endsWith("module-info.class");
+    }
+}
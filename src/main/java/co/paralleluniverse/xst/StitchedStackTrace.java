@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A stack trace linked to the stack trace of the point where the task that captured it was submitted.
+ * The submitting stack trace is its {@link #getAsyncParent() async parent}, and may itself be stitched to its own parent, forming a causal chain.
+ * The top frames of the stack trace may be left out, e.g. those recording a submission.
+ *
+ * @author pron
+ */
+class StitchedStackTrace extends ExtendedStackTrace {
+    private final ExtendedStackTrace trace;
+    private final ExtendedStackTrace parent; // may be null
+    private final int skip; // the number of top frames of trace left out
+    private final int hops; // the length of the chain of parents
+    private volatile long fingerprint; // cache; 0 if not yet computed
+
+    StitchedStackTrace(ExtendedStackTrace trace, ExtendedStackTrace parent) {
+        this(trace, parent, 0);
+    }
+
+    StitchedStackTrace(ExtendedStackTrace trace, ExtendedStackTrace parent, int skip) {
+        super(trace.t);
+        this.trace = trace;
+        this.parent = parent;
+        this.skip = skip;
+        this.hops = parent != null ? hops(parent) + 1 : 0;
+    }
+
+    static int hops(ExtendedStackTrace st) {
+        return st instanceof StitchedStackTrace ? ((StitchedStackTrace) st).hops : 0;
+    }
+
+    @Override
+    ExtendedStackTrace getAsyncParent() {
+        return parent;
+    }
+
+    @Override
+    public ExtendedStackTraceElement[] get() {
+        return skip == 0 ? trace.get() : super.get();
+    }
+
+    @Override
+    protected ExtendedStackTraceElement[] resolve() {
+        final ExtendedStackTraceElement[] est = trace.get();
+        return est != null ? Arrays.copyOfRange(est, Math.min(skip, est.length), est.length) : null;
+    }
+
+    @Override
+    ExtendedStackTraceElement[] resolveShared() {
+        return resolve(); // the elements are the trace's
+    }
+
+    @Override
+    public Iterator<ExtendedStackTraceElement> iterator() {
+        return skip == 0 ? trace.iterator() : trace.iterator(skip, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Iterator<ExtendedStackTraceElement> iterator(int from, int to) {
+        if (from < 0 || from > to)
+            throw new IndexOutOfBoundsException("from: " + from + ", to: " + to);
+        return trace.iterator(from + skip, to <= Integer.MAX_VALUE - skip ? to + skip : Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int depth() {
+        return Math.max(0, trace.depth() - skip);
+    }
+
+    /**
+     * Returns the stack trace of the cause, stitched to the same parent.
+     */
+    @Override
+    public ExtendedStackTrace getCause() {
+        final ExtendedStackTrace cause = trace.getCause();
+        return cause != null && parent != null ? new StitchedStackTrace(cause, parent) : cause;
+    }
+
+    /**
+     * Returns the stack traces of the suppressed exceptions, stitched to the same parent.
+     */
+    @Override
+    public ExtendedStackTrace[] getSuppressed() {
+        final ExtendedStackTrace[] suppressed = trace.getSuppressed();
+        for (int i = 0; i < suppressed.length && parent != null; i++)
+            suppressed[i] = new StitchedStackTrace(suppressed[i], parent);
+        return suppressed;
+    }
+
+    @Override
+    String getThrowableClassName() {
+        return trace.getThrowableClassName();
+    }
+
+    @Override
+    String getThrowableMessage() {
+        return trace.getThrowableMessage();
+    }
+
+    @Override
+    long fingerprint() {
+        long h = fingerprint;
+        if (h == 0) {
+            h = mix(trace.fingerprint(), parent != null ? parent.fingerprint() : 0);
+            fingerprint = h;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return trace.toString();
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Counts exceptions by their throw site -- the exact location of the top frame of their stack trace.
+ * <p>
+ * On HotSpot, the throw site is identified by the top frame's class, method and bytecode index, which are read directly from the
+ * exception's backtrace, without resolving or materializing its stack trace. Elsewhere, the site is identified by
+ * the top {@link StackTraceElement}'s class name, method name and line number.
+ * <p>
+ * Counters are kept in a table that is split into independently locked stripes. Recording an exception thrown at a site
+ * that has already been seen does not allocate. The first exception recorded for each site is kept as a sample.
+ *
+ * @author pron
+ */
+public class ThrowSiteHistogram {
+    private static final int DEFAULT_STRIPES = 16;
+    private static final String UNKNOWN = "<unknown>";
+    private final Stripe[] stripes;
+
+    /**
+     * Creates a new histogram.
+     */
+    public ThrowSiteHistogram() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a new histogram.
+     *
+     * @param concurrency the expected number of threads concurrently recording exceptions
+     */
+    public ThrowSiteHistogram(int concurrency) {
+        if (concurrency <= 0)
+            throw new IllegalArgumentException("concurrency must be positive: " + concurrency);
+        this.stripes = new Stripe[Integer.highestOneBit(concurrency * 2 - 1)];
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new Stripe();
+    }
+
+    /**
+     * Records an exception.
+     */
+    public void record(Throwable t) {
+        if (t == null)
+            return;
+        if (ExtendedStackTrace.HOTSPOT) {
+            final Class<?> clazz = ExtendedStackTraceHotSpot.getTopDeclaringClass(t);
+            if (clazz != null) {
+                final int slot = ExtendedStackTraceHotSpot.getTopMethodSlot(t);
+                final int bci = ExtendedStackTraceHotSpot.getTopBci(t);
+                record(clazz, null, slot, bci, hash(System.identityHashCode(clazz), slot, bci), t);
+                return;
+            }
+        }
+        final StackTraceElement[] st = t.getStackTrace();
+        if (st.length > 0) {
+            final StackTraceElement top = st[0];
+            record(top.getClassName(), top.getMethodName(), -1, top.getLineNumber(),
+                    hash(top.getClassName().hashCode(), top.getMethodName().hashCode(), top.getLineNumber()), t);
+        } else
+            record(UNKNOWN, UNKNOWN, -1, -1, hash(UNKNOWN.hashCode(), 0, -1), t);
+    }
+
+    private void record(Object owner, String methodName, int method, int position, int hash, Throwable t) {
+        stripes[(hash >>> 16) & (stripes.length - 1)].increment(owner, methodName, method, position, hash, t);
+    }
+
+    /**
+     * Returns the sites with the highest counts, in descending order of their counts.
+     *
+     * @param n the maximum number of sites to return
+     */
+    public List<Site> top(int n) {
+        final List<Site> sites = getSites();
+        Collections.sort(sites, new Comparator<Site>() {
+            @Override
+            public int compare(Site s1, Site s2) {
+                return Long.compare(s2.count, s1.count);
+            }
+        });
+        return n < sites.size() ? new ArrayList<>(sites.subList(0, n)) : sites;
+    }
+
+    /**
+     * Returns all sites recorded so far, in no particular order.
+     */
+    public List<Site> getSites() {
+        final List<Site> sites = new ArrayList<>();
+        for (Stripe stripe : stripes)
+            stripe.collect(sites);
+        return sites;
+    }
+
+    /**
+     * Clears all counts and samples.
+     */
+    public void reset() {
+        for (Stripe stripe : stripes)
+            stripe.reset();
+    }
+
+    private static int hash(int owner, int method, int position) {
+        int h = 31 * (31 * owner + method) + position;
+        return h ^ (h >>> 16) ^ (h << 16);
+    }
+
+    /**
+     * An open-addressing table (with linear probing) of counters, kept in parallel arrays.
+     */
+    private static final class Stripe {
+        private static final int INITIAL_CAPACITY = 16;
+        private Object[] owners;       // Class on HotSpot, class name otherwise
+        private String[] methodNames;  // null on HotSpot
+        private int[] methods;         // method slot on HotSpot, -1 otherwise
+        private int[] positions;       // bci on HotSpot, line number otherwise
+        private int[] hashes;
+        private long[] counts;
+        private Throwable[] samples;
+        private int size;
+
+        Stripe() {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        private void allocate(int capacity) {
+            owners = new Object[capacity];
+            methodNames = new String[capacity];
+            methods = new int[capacity];
+            positions = new int[capacity];
+            hashes = new int[capacity];
+            counts = new long[capacity];
+            samples = new Throwable[capacity];
+            size = 0;
+        }
+
+        synchronized void increment(Object owner, String methodName, int method, int position, int hash, Throwable t) {
+            final int mask = owners.length - 1;
+            for (int i = hash & mask;; i = (i + 1) & mask) {
+                final Object o = owners[i];
+                if (o == null) {
+                    if ((size + 1) * 2 > owners.length) {
+                        grow();
+                        increment(owner, methodName, method, position, hash, t);
+                        return;
+                    }
+                    owners[i] = owner;
+                    methodNames[i] = methodName;
+                    methods[i] = method;
+                    positions[i] = position;
+                    hashes[i] = hash;
+                    counts[i] = 1;
+                    samples[i] = t;
+                    size++;
+                    return;
+                }
+                if (hashes[i] == hash && methods[i] == method && positions[i] == position
+                        && (o == owner || o.equals(owner))
+                        && (methodNames[i] == methodName || (methodName != null && methodName.equals(methodNames[i])))) {
+                    counts[i]++;
+                    return;
+                }
+            }
+        }
+
+        private void grow() {
+            final Object[] owners0 = owners;
+            final String[] methodNames0 = methodNames;
+            final int[] methods0 = methods;
+            final int[] positions0 = positions;
+            final int[] hashes0 = hashes;
+            final long[] counts0 = counts;
+            final Throwable[] samples0 = samples;
+
+            allocate(owners0.length * 2);
+            final int mask = owners.length - 1;
+            for (int j = 0; j < owners0.length; j++) {
+                if (owners0[j] == null)
+                    continue;
+                int i = hashes0[j] & mask;
+                while (owners[i] != null)
+                    i = (i + 1) & mask;
+                owners[i] = owners0[j];
+                methodNames[i] = methodNames0[j];
+                methods[i] = methods0[j];
+                positions[i] = positions0[j];
+                hashes[i] = hashes0[j];
+                counts[i] = counts0[j];
+                samples[i] = samples0[j];
+                size++;
+            }
+        }
+
+        synchronized void collect(List<Site> sites) {
+            for (int i = 0; i < owners.length; i++) {
+                if (owners[i] != null)
+                    sites.add(new Site(owners[i], methodNames[i], positions[i], counts[i], samples[i]));
+            }
+        }
+
+        synchronized void reset() {
+            allocate(INITIAL_CAPACITY);
+        }
+    }
+
+    /**
+     * A snapshot of the count of exceptions thrown at a single site.
+     */
+    public static final class Site {
+        private final Object owner;
+        private final String methodName;
+        private final int position;
+        private final long count;
+        private final Throwable sample;
+        private ExtendedStackTraceElement top;
+
+        Site(Object owner, String methodName, int position, long count, Throwable sample) {
+            this.owner = owner;
+            this.methodName = methodName;
+            this.position = position;
+            this.count = count;
+            this.sample = sample;
+        }
+
+        /**
+         * The number of exceptions recorded at this site.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * The first exception recorded at this site.
+         */
+        public Throwable getSample() {
+            return sample;
+        }
+
+        /**
+         * The stack trace of the first exception recorded at this site.
+         */
+        public ExtendedStackTrace getStackTrace() {
+            return ExtendedStackTrace.of(sample);
+        }
+
+        /**
+         * The frame identifying this site, i.e. the top frame of the {@link #getSample() sample}, or {@code null} if it is unknown.
+         */
+        public synchronized ExtendedStackTraceElement getTopFrame() {
+            if (top == null) {
+                final ExtendedStackTraceElement[] est = getStackTrace().get();
+                if (est != null && est.length > 0)
+                    top = est[0];
+            }
+            return top;
+        }
+
+        /**
+         * The name of the class containing the site.
+         */
+        public String getClassName() {
+            return owner instanceof Class ? ((Class<?>) owner).getName() : (String) owner;
+        }
+
+        /**
+         * The name of the method containing the site.
+         */
+        public String getMethodName() {
+            if (methodName != null)
+                return methodName;
+            final ExtendedStackTraceElement e = getTopFrame();
+            return e != null ? e.getMethodName() : UNKNOWN;
+        }
+
+        /**
+         * The bytecode index of the site within its method, or a negative number if it is unknown.
+         */
+        public int getBytecodeIndex() {
+            return owner instanceof Class ? position : -1;
+        }
+
+        /**
+         * The line number of the site, or a negative number if it is unknown.
+         */
+        public int getLineNumber() {
+            if (!(owner instanceof Class))
+                return position;
+            final ExtendedStackTraceElement e = getTopFrame();
+            return e != null ? e.getLineNumber() : -1;
+        }
+
+        @Override
+        public String toString() {
+            final ExtendedStackTraceElement e = getTopFrame();
+            return count + "\t" + (e != null ? e.toString() : getClassName() + '.' + getMethodName());
+        }
+    }
+}
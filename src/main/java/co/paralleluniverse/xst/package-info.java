@@ -19,13 +19,13 @@
  * <li>The bytecode index</li>
  * </ul>
  * <p>
- * Works best when running on a Java 8 HotSpot (OpenJDK/Oracle JDK) JVM.
+ * Works best when running on a HotSpot (OpenJDK/Oracle JDK) JVM, Java 8 through 21.
  * 
  * <h2>Usage</h2>
  * Obtain the extended stack trace information with {@link co.paralleluniverse.xst.ExtendedStackTrace#here()} or {@link co.paralleluniverse.xst.ExtendedStackTrace#of(Throwable)}
  * 
  * <h2>Details</h2>
- * On the HotSpot JVM (OpenJDK/Oracle JDK) for Java 8, the extended information is always available, and obtaining it is as efficient as a plain {@link Throwable#getStackTrace()}.
+ * On the HotSpot JVM (OpenJDK/Oracle JDK) for Java 8 through 21, the extended information is always available, and obtaining it is as efficient as a plain {@link Throwable#getStackTrace()}.
  *
  * On other JVMs/Java versions the extended information may be incomplete. There are (much) better chances for obtaining extended information when capturing the stack with 
  * {@link co.paralleluniverse.xst.ExtendedStackTrace#here()} than when extracting extended information from a {@code Throwable} with {@link co.paralleluniverse.xst.ExtendedStackTrace#of(Throwable)}.
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst.stream;
+
+import co.paralleluniverse.xst.ExtendedStackTrace;
+import co.paralleluniverse.xst.ExtendedStackTraceElement;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streams over the frames of {@link ExtendedStackTrace}s.
+ * <p>
+ * The streams are lazy: frames are resolved only when the stream reaches them, so short-circuiting operations such as
+ * {@code findFirst}, {@code limit} or {@code anyMatch} resolve only the frames they examine (on JVMs where the stack trace
+ * can be resolved frame by frame; see {@link ExtendedStackTrace#iterator(int, int)}).
+ * Deep stack traces are split along the JVM's own chunks of frames, so they can be resolved by parallel streams.
+ * <pre>{@code
+ * ExtendedStackTraceElement caller = ExtendedStackTraceStreams.stream(ExtendedStackTrace.here())
+ *         .filter(e -> !e.getClassName().startsWith("org.example.internal."))
+ *         .findFirst().orElse(null);
+ * }</pre>
+ *
+ * @author pron
+ */
+public final class ExtendedStackTraceStreams {
+    /**
+     * Returns a sequential stream of the frames of the given stack trace, from the top.
+     */
+    public static Stream<ExtendedStackTraceElement> stream(ExtendedStackTrace st) {
+        return StreamSupport.stream(spliterator(st), false);
+    }
+
+    /**
+     * Returns a possibly parallel stream of the frames of the given stack trace, from the top.
+     */
+    public static Stream<ExtendedStackTraceElement> parallelStream(ExtendedStackTrace st) {
+        return StreamSupport.stream(spliterator(st), true);
+    }
+
+    /**
+     * Returns a spliterator over the frames of the given stack trace, from the top.
+     */
+    public static Spliterator<ExtendedStackTraceElement> spliterator(ExtendedStackTrace st) {
+        return new FrameSpliterator(st, 0, -1);
+    }
+
+    private ExtendedStackTraceStreams() {
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst.stream;
+
+import co.paralleluniverse.xst.ExtendedStackTrace;
+import co.paralleluniverse.xst.ExtendedStackTraceElement;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator over a range of a stack trace's frames.
+ * The range is resolved lazily, through {@link ExtendedStackTrace#iterator(int, int)}, and is split at multiples of {@link #CHUNK},
+ * the size of HotSpot's backtrace chunks, so that each part starts at the beginning of a chunk.
+ *
+ * @author pron
+ */
+final class FrameSpliterator implements Spliterator<ExtendedStackTraceElement> {
+    static final int CHUNK = 32;
+    private final ExtendedStackTrace st;
+    private int from;
+    private int to; // -1 until the depth is known
+    private Iterator<ExtendedStackTraceElement> it; // created on first traversal
+
+    FrameSpliterator(ExtendedStackTrace st, int from, int to) {
+        this.st = st;
+        this.from = from;
+        this.to = to;
+    }
+
+    private int to() {
+        if (to < 0)
+            to = st.depth();
+        return to;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super ExtendedStackTraceElement> action) {
+        if (it == null)
+            it = st.iterator(from, to());
+        if (!it.hasNext())
+            return false;
+        from++;
+        action.accept(it.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super ExtendedStackTraceElement> action) {
+        if (it == null)
+            it = st.iterator(from, to());
+        while (it.hasNext()) {
+            from++;
+            action.accept(it.next());
+        }
+    }
+
+    @Override
+    public Spliterator<ExtendedStackTraceElement> trySplit() {
+        if (it != null)
+            return null; // traversal has begun
+        final int mid = ((from + to()) >>> 1) & ~(CHUNK - 1);
+        if (mid <= from)
+            return null;
+        final FrameSpliterator prefix = new FrameSpliterator(st, from, mid);
+        this.from = mid;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return to() - from;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+}
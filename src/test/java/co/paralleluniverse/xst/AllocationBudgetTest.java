@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Guards the allocation cost of capturing, resolving, fingerprinting, printing and recording stack traces, on each available backend.
+ * Budgets are expressed relative to the cost of the equivalent plain {@code Throwable} operations, measured on the same JVM.
+ *
+ * @author pron
+ */
+public class AllocationBudgetTest {
+    private static final int WARMUP = 2000;
+    private static final int ITERATIONS = 2000;
+    private static volatile Object sink;
+
+    private static final long CAPTURE_OVERHEAD = 256;   // the stack trace object, and, for ClassContext, the class context
+    private static final long ELEMENT_OVERHEAD = 96;    // an extended element and its slot, per frame
+    private static final long GET_METHOD_BUDGET = 4096;
+    private static final long FINGERPRINT_BUDGET = 32;  // the boxed result
+    private static final long RECORD_BUDGET = 0;
+
+    private com.sun.management.ThreadMXBean threads;
+
+    @Before
+    public void setUp() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void testCapture() {
+        final long exception = measure(new Op() {
+            @Override
+            public Object run() {
+                return new Exception("Stack trace");
+            }
+        });
+        for (final Backend backend : backends()) {
+            final long here = measure(new Op() {
+                @Override
+                public Object run() {
+                    return backend.here();
+                }
+            });
+            assertBudget(backend + " here()", here, exception + CAPTURE_OVERHEAD);
+        }
+    }
+
+    @Test
+    public void testResolve() {
+        final long getStackTrace = measure(new Op() {
+            @Override
+            public Object run() {
+                return new Exception("Stack trace");
+            }
+        }, new Op() {
+            @Override
+            public Object run() {
+                return new Exception("Stack trace").getStackTrace();
+            }
+        });
+        final int depth = new Exception().getStackTrace().length;
+        for (final Backend backend : backends()) {
+            final long get = measure(new Op() {
+                @Override
+                public Object run() {
+                    return backend.here();
+                }
+            }, new Op() {
+                @Override
+                public Object run() {
+                    return backend.here().get();
+                }
+            });
+            assertBudget(backend + " get()", get, getStackTrace + depth * ELEMENT_OVERHEAD);
+        }
+    }
+
+    @Test
+    public void testGetMethod() {
+        for (final Backend backend : backends()) {
+            final long getMethod = measure(new Op() {
+                @Override
+                public Object run() {
+                    return backend.here().get()[0];
+                }
+            }, new Op() {
+                @Override
+                public Object run() {
+                    return backend.here().get()[0].getMethod();
+                }
+            });
+            assertBudget(backend + " getMethod()", getMethod, GET_METHOD_BUDGET);
+        }
+    }
+
+    @Test
+    public void testFingerprint() {
+        for (final Backend backend : backends()) {
+            // each iteration fingerprints a fresh trace, as fingerprints are cached
+            final long fingerprint = measure(new Op() {
+                @Override
+                public Object run() {
+                    return fingerprintable(backend.here());
+                }
+            }, new Op() {
+                @Override
+                public Object run() {
+                    return fingerprintable(backend.here()).fingerprint();
+                }
+            });
+            assertBudget(backend + " fingerprint()", fingerprint, FINGERPRINT_BUDGET);
+        }
+    }
+
+    /**
+     * Resolves the stack trace, unless it can be fingerprinted without resolving it.
+     */
+    private static ExtendedStackTrace fingerprintable(ExtendedStackTrace st) {
+        if (!(st instanceof ExtendedStackTraceHotSpot))
+            st.get();
+        return st;
+    }
+
+    @Test
+    public void testPrint() {
+        final PrintStream nul = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        final Exception e = new Exception("print", new Exception("cause"));
+        final long plain = measure(new Op() {
+            @Override
+            public Object run() {
+                e.printStackTrace(nul);
+                return null;
+            }
+        });
+        for (final Backend backend : throwableBackends()) {
+            final ExtendedStackTrace st = backend.of(e);
+            final long print = measure(new Op() {
+                @Override
+                public Object run() {
+                    st.printStackTrace(nul);
+                    return null;
+                }
+            });
+            assertBudget(backend + " printStackTrace()", print, plain);
+        }
+    }
+
+    @Test
+    public void testRecord() throws Exception {
+        assumeTrue(ExtendedStackTrace.HOTSPOT);
+        final File file = File.createTempFile("xst", ".rec");
+        try (final ExceptionFlightRecorder recorder = new ExceptionFlightRecorder(file, 64, 32)) {
+            final Exception e = new Exception("record");
+            final long record = measure(new Op() {
+                @Override
+                public Object run() {
+                    recorder.record(e);
+                    return null;
+                }
+            });
+            assertBudget("ExceptionFlightRecorder.record()", record, RECORD_BUDGET);
+        } finally {
+            file.delete();
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////
+    private static void assertBudget(String what, long bytesPerOp, long budget) {
+        assertTrue(what + " allocates " + bytesPerOp + " bytes per operation; budget is " + budget, bytesPerOp <= budget);
+    }
+
+    private long measure(Op op) {
+        return measure(null, op);
+    }
+
+    /**
+     * Returns the average number of bytes allocated by {@code op}, less those allocated by {@code base}.
+     */
+    private long measure(Op base, Op op) {
+        final long tid = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP; i++) {
+            sink = op.run();
+            if (base != null)
+                sink = base.run();
+        }
+        final long calibration = threads.getThreadAllocatedBytes(tid);
+        final long overhead = threads.getThreadAllocatedBytes(tid) - calibration;
+
+        long baseBytes = 0;
+        if (base != null) {
+            final long start = threads.getThreadAllocatedBytes(tid);
+            for (int i = 0; i < ITERATIONS; i++)
+                sink = base.run();
+            baseBytes = threads.getThreadAllocatedBytes(tid) - start - overhead;
+        }
+        final long start = threads.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < ITERATIONS; i++)
+            sink = op.run();
+        final long bytes = threads.getThreadAllocatedBytes(tid) - start - overhead;
+        return Math.max(0, (bytes - baseBytes) / ITERATIONS);
+    }
+
+    private interface Op {
+        Object run();
+    }
+
+    private static List<Backend> backends() {
+        final List<Backend> backends = new ArrayList<>();
+        if (ExtendedStackTrace.HOTSPOT) {
+            backends.add(new Backend("HotSpot") {
+                @Override
+                ExtendedStackTrace of(Throwable t) {
+                    return new ExtendedStackTraceHotSpot(t);
+                }
+
+                @Override
+                ExtendedStackTrace here() {
+                    return new ExtendedStackTraceHotSpot(new Exception("Stack trace"));
+                }
+            });
+        }
+        backends.add(new Backend("Basic") {
+            @Override
+            ExtendedStackTrace of(Throwable t) {
+                return new ExtendedStackTrace(t);
+            }
+
+            @Override
+            ExtendedStackTrace here() {
+                return new ExtendedStackTrace(new Exception("Stack trace"));
+            }
+        });
+        backends.add(new Backend("ClassContext") {
+            @Override
+            ExtendedStackTrace of(Throwable t) {
+                return null; // only captures the current stack
+            }
+
+            @Override
+            ExtendedStackTrace here() {
+                return new ExtendedStackTraceClassContext();
+            }
+        });
+        return backends;
+    }
+
+    /**
+     * The backends that can wrap a given {@code Throwable}.
+     */
+    private static List<Backend> throwableBackends() {
+        final List<Backend> backends = new ArrayList<>();
+        for (Backend backend : backends()) {
+            if (backend.of(new Exception()) != null)
+                backends.add(backend);
+        }
+        return backends;
+    }
+
+    private abstract static class Backend {
+        private final String name;
+
+        Backend(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Returns the stack trace of the given {@code Throwable}, or {@code null} if this backend only captures the current stack.
+         */
+        abstract ExtendedStackTrace of(Throwable t);
+
+        abstract ExtendedStackTrace here();
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Prints to an in-memory channel, which can hold the printer's thread in a write to fill up the queue.
+ *
+ * @author pron
+ */
+public class AsyncStackTracePrinterTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test(timeout = 10000)
+    public void testFlush() throws Exception {
+        final Output out = new Output();
+        final AsyncStackTracePrinter printer = new AsyncStackTracePrinter(out, UTF8, 16, AsyncStackTracePrinter.OverflowPolicy.DROP, false);
+        try {
+            assertTrue(printer.print(new Exception("first")));
+            assertTrue(printer.print(new Exception("second")));
+            printer.flush();
+            final String printed = out.toString();
+            assertTrue(printed, printed.contains("java.lang.Exception: first"));
+            assertTrue(printed, printed.contains("java.lang.Exception: second"));
+            assertTrue(printed, printed.contains("\tat co.paralleluniverse.xst.AsyncStackTracePrinterTest.testFlush"));
+            assertEquals(0, printer.getDroppedCount());
+        } finally {
+            printer.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testDrop() throws Exception {
+        final Output out = new Output();
+        out.hold();
+        final AsyncStackTracePrinter printer = new AsyncStackTracePrinter(out, UTF8, 1, AsyncStackTracePrinter.OverflowPolicy.DROP, false);
+        try {
+            fill(printer, out);
+            assertFalse(printer.print(new Exception("dropped")));
+            assertFalse(printer.print(new Exception("dropped")));
+            assertEquals(2, printer.getDroppedCount());
+
+            out.release();
+            printer.flush();
+            final String printed = out.toString();
+            assertTrue(printed, printed.contains("java.lang.Exception: queued"));
+            assertFalse(printed, printed.contains("dropped"));
+        } finally {
+            printer.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testSummarize() throws Exception {
+        final Output out = new Output();
+        out.hold();
+        final AsyncStackTracePrinter printer = new AsyncStackTracePrinter(out, UTF8, 1, AsyncStackTracePrinter.OverflowPolicy.SUMMARIZE, false);
+        try {
+            fill(printer, out);
+            for (int i = 0; i < 3; i++)
+                assertFalse(printer.print(new Exception("dropped"))); // the same stack trace each time
+            assertEquals(3, printer.getDroppedCount());
+
+            out.release();
+            printer.flush();
+            printer.close(); // the summary may follow the flush
+            final String printed = out.toString();
+            assertTrue(printed, printed.contains("Stack traces dropped because the print queue was full:"));
+            assertTrue(printed, printed.contains("\t3 x java.lang.Exception: dropped"));
+        } finally {
+            printer.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testBlock() throws Exception {
+        final Output out = new Output();
+        out.hold();
+        final AsyncStackTracePrinter printer = new AsyncStackTracePrinter(out, UTF8, 1, AsyncStackTracePrinter.OverflowPolicy.BLOCK, false);
+        try {
+            fill(printer, out);
+            final AtomicBoolean queued = new AtomicBoolean();
+            final Thread blocked = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    queued.set(printer.print(new Exception("blocked")));
+                }
+            });
+            blocked.start();
+            blocked.join(100);
+            assertTrue(blocked.isAlive());
+
+            out.release();
+            blocked.join();
+            assertTrue(queued.get());
+            printer.flush();
+            assertTrue(out.toString().contains("java.lang.Exception: blocked"));
+            assertEquals(0, printer.getDroppedCount());
+        } finally {
+            printer.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testClose() throws Exception {
+        final Output out = new Output();
+        final AsyncStackTracePrinter printer = new AsyncStackTracePrinter(out, UTF8, 1 << 16, AsyncStackTracePrinter.OverflowPolicy.DROP, false);
+        final Thread[] threads = new Thread[4];
+        final boolean[][] queued = new boolean[threads.length][200];
+        final CountDownLatch started = new CountDownLatch(threads.length);
+        for (int i = 0; i < threads.length; i++) {
+            final int k = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    for (int j = 0; j < queued[k].length; j++)
+                        queued[k][j] = printer.print(new Exception("thread-" + k + "-" + j + "."));
+                }
+            });
+            threads[i].start();
+        }
+        started.await();
+        printer.close();
+        for (Thread t : threads)
+            t.join();
+
+        final String printed = out.toString();
+        for (int i = 0; i < threads.length; i++) {
+            for (int j = 0; j < queued[i].length; j++) {
+                final String message = "java.lang.Exception: thread-" + i + "-" + j + ".";
+                assertEquals(message, queued[i][j], printed.contains(message));
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testDeadThread() throws Exception {
+        final Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+            }
+        });
+        try {
+            final WritableByteChannel broken = new Output() {
+                @Override
+                public int write(ByteBuffer src) {
+                    throw new IllegalStateException("broken");
+                }
+            };
+            final AsyncStackTracePrinter printer = new AsyncStackTracePrinter(broken, UTF8, 1, AsyncStackTracePrinter.OverflowPolicy.BLOCK, false);
+            printer.print(new Exception("kills the printer"));
+            while (printer.print(new Exception("blocked"))) // returns false once the printer's thread has died
+                Thread.sleep(10);
+            printer.close();
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(handler);
+        }
+    }
+
+    /**
+     * Holds the printer's thread in a write, and fills the queue.
+     */
+    private static void fill(AsyncStackTracePrinter printer, Output out) throws InterruptedException {
+        assertTrue(printer.print(new Exception("held")));
+        out.writing.await();
+        assertTrue(printer.print(new Exception("queued")));
+    }
+
+    private static class Output implements WritableByteChannel {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final CountDownLatch writing = new CountDownLatch(1);
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+
+        void hold() {
+            gate = new CountDownLatch(1);
+        }
+
+        void release() {
+            gate.countDown();
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            writing.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            final int n = src.remaining();
+            synchronized (bytes) {
+                while (src.hasRemaining())
+                    bytes.write(src.get());
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            synchronized (bytes) {
+                return new String(bytes.toByteArray(), UTF8);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.util.concurrent.Executor;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+import org.junit.Test;
+
+/**
+ * Runs chains of wrapped tasks, and checks the stitched stack traces captured in them.
+ * Tasks are run in the submitting thread, which is enough to stitch them.
+ *
+ * @author pron
+ */
+public class AsyncStackTracesTest {
+    private static final Executor executor = AsyncStackTraces.wrap(new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    });
+
+    private ExtendedStackTrace captured;
+
+    @Test
+    public void testChain() {
+        submitOuter();
+        final String printed = print(captured);
+        assertEquals(2, count(printed, "Submitted: asynchronous task"));
+        assertTrue(printed, printed.indexOf("submitInner") < printed.indexOf("submitOuter"));
+        assertEquals(2, StitchedStackTrace.hops(captured));
+    }
+
+    private void submitOuter() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                submitInner();
+            }
+        });
+    }
+
+    private void submitInner() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                captured = AsyncStackTraces.here();
+            }
+        });
+    }
+
+    @Test
+    public void testCause() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                captured = AsyncStackTraces.of(new RuntimeException("outer", new Exception("inner")));
+            }
+        });
+        assertNotNull(captured.getAsyncParent());
+        assertSame(captured.getAsyncParent(), captured.getCause().getAsyncParent());
+        final String printed = print(captured);
+        assertEquals(1, count(printed, "Submitted: asynchronous task"));
+        assertEquals(0, count(printed, "CIRCULAR REFERENCE"));
+        assertTrue(printed, printed.indexOf("Submitted: ") < printed.indexOf("Caused by: java.lang.Exception: inner"));
+    }
+
+    @Test
+    public void testSharedSubmission() {
+        assumeTrue(ExtendedStackTrace.HOTSPOT);
+        final Runnable[] tasks = new Runnable[2];
+        final ExtendedStackTrace[] parents = new ExtendedStackTrace[tasks.length];
+        for (int i = 0; i < tasks.length; i++) {
+            final int k = i;
+            tasks[i] = AsyncStackTraces.wrap(new Runnable() {
+                @Override
+                public void run() {
+                    parents[k] = AsyncStackTraces.here().getAsyncParent();
+                }
+            });
+        }
+        for (Runnable task : tasks)
+            task.run();
+        assertNotNull(parents[0]);
+        assertSame(parents[0], parents[1]);
+    }
+
+    @Test
+    public void testMaxHops() {
+        submitNested(2 * AsyncStackTraces.MAX_HOPS);
+        assertTrue(StitchedStackTrace.hops(captured) <= AsyncStackTraces.MAX_HOPS);
+        int n = 0;
+        for (ExtendedStackTrace st = captured.getAsyncParent(); st != null; st = st.getAsyncParent())
+            n++;
+        assertEquals(StitchedStackTrace.hops(captured), n);
+    }
+
+    private void submitNested(final int depth) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (depth == 0)
+                    captured = AsyncStackTraces.here();
+                else
+                    submitNested(depth - 1);
+            }
+        });
+    }
+
+    private static String print(ExtendedStackTrace st) {
+        final StringBuilder sb = new StringBuilder();
+        st.printStackTrace(sb);
+        return sb.toString();
+    }
+
+    private static int count(String s, String sub) {
+        int n = 0;
+        for (int i = s.indexOf(sub); i >= 0; i = s.indexOf(sub, i + 1))
+            n++;
+        return n;
+    }
+}
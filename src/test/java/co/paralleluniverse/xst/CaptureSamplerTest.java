@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Counts and samples events with the two kinds of samplers.
+ *
+ * @author pron
+ */
+public class CaptureSamplerTest {
+    @Test
+    public void testEveryNth() {
+        final CaptureSampler sampler = CaptureSampler.everyNth(3);
+        for (int i = 0; i < 10; i++) {
+            final ExtendedStackTrace st = sampler.here();
+            if (i % 3 == 0) {
+                assertNotSame(CaptureSampler.UNSAMPLED, st);
+                assertTrue(contains(st, "testEveryNth"));
+            } else
+                assertSame(CaptureSampler.UNSAMPLED, st);
+        }
+        assertEquals(10, sampler.getEventCount());
+        assertEquals(4, sampler.getSampleCount());
+        assertEquals(2.5, sampler.getWeight(), 0.0);
+    }
+
+    @Test
+    public void testOf() {
+        final CaptureSampler sampler = CaptureSampler.everyNth(2);
+        final Exception e = new Exception();
+        assertEquals(e.getStackTrace().length, sampler.of(e).get().length);
+        assertSame(CaptureSampler.UNSAMPLED, sampler.of(e));
+        assertEquals(0, CaptureSampler.UNSAMPLED.get().length);
+    }
+
+    @Test
+    public void testNoSamples() {
+        final CaptureSampler sampler = CaptureSampler.withTimeBudget(0, TimeUnit.SECONDS);
+        for (int i = 0; i < 10; i++)
+            assertSame(CaptureSampler.UNSAMPLED, sampler.here());
+        assertEquals(10, sampler.getEventCount());
+        assertEquals(0, sampler.getSampleCount());
+        assertEquals(0.0, sampler.getWeight(), 0.0);
+    }
+
+    @Test
+    public void testTimeBudget() throws Exception {
+        final CaptureSampler sampler = CaptureSampler.withTimeBudget(1, TimeUnit.NANOSECONDS);
+        assertNotSame(CaptureSampler.UNSAMPLED, sampler.here()); // exhausts the budget
+        for (int i = 0; i < 10; i++)
+            assertSame(CaptureSampler.UNSAMPLED, sampler.here());
+        assertEquals(1, sampler.getSampleCount());
+
+        Thread.sleep(1100); // the next period
+        assertNotSame(CaptureSampler.UNSAMPLED, sampler.here());
+        assertSame(CaptureSampler.UNSAMPLED, sampler.here());
+        assertEquals(2, sampler.getSampleCount());
+        assertEquals(13, sampler.getEventCount());
+    }
+
+    @Test
+    public void testAmpleTimeBudget() {
+        final CaptureSampler sampler = CaptureSampler.withTimeBudget(1, TimeUnit.HOURS);
+        for (int i = 0; i < 10; i++)
+            assertNotSame(CaptureSampler.UNSAMPLED, sampler.here());
+        assertEquals(1.0, sampler.getWeight(), 0.0);
+    }
+
+    private static boolean contains(ExtendedStackTrace st, String method) {
+        for (ExtendedStackTraceElement e : st.get()) {
+            if (e.getMethodName().equals(method))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Prints exceptions thrown at a few distinct sites. Each site's exceptions share a stack trace, and the sites' traces differ.
+ *
+ * @author pron
+ */
+public class DeduplicatingStackTracePrinterTest {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final PrintStream out = new PrintStream(bytes, true);
+
+    @Test
+    public void testSummary() {
+        final DeduplicatingStackTracePrinter printer = new DeduplicatingStackTracePrinter(1, TimeUnit.HOURS, 16);
+        assertEquals("FSSF", print(printer, 0, 0, 0, 1));
+
+        final String printed = bytes.toString();
+        assertEquals(2, count(printed, "\tat co.paralleluniverse.xst.DeduplicatingStackTracePrinterTest.exception")); // one full trace per site
+        assertTrue(printed, printed.contains("java.lang.Exception: site-0 [seen 2 times since "));
+        assertTrue(printed, printed.contains("java.lang.Exception: site-0 [seen 3 times since "));
+    }
+
+    @Test
+    public void testWindow() {
+        final DeduplicatingStackTracePrinter printer = new DeduplicatingStackTracePrinter(0, TimeUnit.MILLISECONDS, 16);
+        assertEquals("FFF", print(printer, 0, 0, 0));
+        assertFalse(bytes.toString().contains("[seen "));
+    }
+
+    @Test
+    public void testEviction() {
+        final DeduplicatingStackTracePrinter printer = new DeduplicatingStackTracePrinter(1, TimeUnit.HOURS, 2);
+        // after the third print, 1 is the least recently seen, and is evicted by 2; it is then printed in full again, evicting 0
+        assertEquals("FFSFSSFF", print(printer, 0, 1, 0, 2, 0, 2, 1, 0));
+    }
+
+    @Test
+    public void testManySites() {
+        final DeduplicatingStackTracePrinter printer = new DeduplicatingStackTracePrinter(1, TimeUnit.HOURS, 3);
+        final int[] sites = new int[60];
+        for (int i = 0; i < sites.length; i++)
+            sites[i] = i % 3;
+        final String outcomes = print(printer, sites);
+        assertEquals("FFF", outcomes.substring(0, 3));
+        assertEquals(-1, outcomes.indexOf('F', 3));
+        assertTrue(bytes.toString().contains("java.lang.Exception: site-2 [seen 20 times since "));
+    }
+
+    /**
+     * Prints an exception from each of the given sites in turn, and returns a string telling, for each, whether it has been printed in full ({@code F}) or summarized ({@code S}).
+     * All exceptions thrown at a site share a stack trace.
+     */
+    private String print(DeduplicatingStackTracePrinter printer, int... sites) {
+        final StringBuilder sb = new StringBuilder();
+        for (int site : sites)
+            sb.append(printer.printStackTrace(exception(site), out) ? 'F' : 'S');
+        return sb.toString();
+    }
+
+    private static Exception exception(int site) {
+        switch (site) {
+            case 0:
+                return new Exception("site-0");
+            case 1:
+                return new Exception("site-1");
+            default:
+                return new Exception("site-" + site);
+        }
+    }
+
+    private static int count(String s, String sub) {
+        int n = 0;
+        for (int i = s.indexOf(sub); i >= 0; i = s.indexOf(sub, i + 1))
+            n++;
+        return n;
+    }
+}
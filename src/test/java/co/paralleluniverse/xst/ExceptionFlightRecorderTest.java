@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.io.File;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Records exceptions into a small ring, and reads them back.
+ *
+ * @author pron
+ */
+public class ExceptionFlightRecorderTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("xst", ".rec");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testContents() throws Exception {
+        final Exception e = new IllegalStateException();
+        try (ExceptionFlightRecorder recorder = new ExceptionFlightRecorder(file, 4, 3)) {
+            recorder.record(e);
+        }
+        final List<ExceptionFlightRecorder.Record> records = ExceptionFlightRecorder.read(file);
+        assertEquals(1, records.size());
+        assertEquals(0, records.get(0).getSequence());
+
+        final ExtendedStackTrace st = records.get(0).getStackTrace();
+        assertEquals("java.lang.IllegalStateException", st.getThrowableClassName());
+        final ExtendedStackTraceElement[] actual = st.get();
+        final StackTraceElement[] expected = e.getStackTrace();
+        assertEquals(3, actual.length); // maxFrames
+        for (int i = 0; i < actual.length; i++) {
+            assertEquals(expected[i].getClassName(), actual[i].getClassName());
+            assertEquals(expected[i].getMethodName(), actual[i].getMethodName());
+            assertEquals(expected[i].getFileName(), actual[i].getFileName());
+            assertEquals(expected[i].getLineNumber(), actual[i].getLineNumber());
+        }
+    }
+
+    @Test
+    public void testWraparound() throws Exception {
+        try (ExceptionFlightRecorder recorder = new ExceptionFlightRecorder(file, 4, 8)) {
+            for (int i = 0; i < 10; i++)
+                recorder.record(i % 2 == 0 ? new RuntimeException() : new Error());
+        }
+        final List<ExceptionFlightRecorder.Record> records = ExceptionFlightRecorder.read(file);
+        assertEquals(4, records.size());
+        for (int i = 0; i < 4; i++) {
+            final ExceptionFlightRecorder.Record r = records.get(i);
+            assertEquals(6 + i, r.getSequence());
+            assertEquals(i % 2 == 0 ? "java.lang.RuntimeException" : "java.lang.Error", r.getStackTrace().getThrowableClassName());
+            assertEquals("testWraparound", r.getStackTrace().get()[0].getMethodName());
+        }
+    }
+
+    @Test
+    public void testStackTraceSet() throws Exception {
+        final Exception e = new Exception();
+        e.setStackTrace(new StackTraceElement[]{new StackTraceElement("Foo", "bar", "Foo.java", 7)});
+        try (ExceptionFlightRecorder recorder = new ExceptionFlightRecorder(file, 4, 8)) {
+            recorder.record(e);
+        }
+        final ExtendedStackTraceElement[] actual = ExceptionFlightRecorder.read(file).get(0).getStackTrace().get();
+        assertEquals(1, actual.length);
+        assertEquals("Foo", actual[0].getClassName());
+        assertEquals("bar", actual[0].getMethodName());
+        assertEquals(7, actual[0].getLineNumber());
+    }
+}
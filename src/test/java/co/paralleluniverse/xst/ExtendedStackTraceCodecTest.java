@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Round-trips stack traces through {@link ExtendedStackTraceCodec}, including trees of causes that share or cycle back to a throwable.
+ *
+ * @author pron
+ */
+public class ExtendedStackTraceCodecTest {
+    @Test
+    public void testRoundTrip() throws Exception {
+        final Exception e = new IllegalStateException("outer", new RuntimeException("inner"));
+        final ExtendedStackTrace st = ExtendedStackTrace.of(e);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ExtendedStackTraceCodec.encode(st, bytes);
+        final ExtendedStackTrace decoded = ExtendedStackTraceCodec.decode(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertSameTrace(st, decoded);
+        assertSameTrace(st.getCause(), decoded.getCause());
+        assertNull(decoded.getCause().getCause());
+    }
+
+    @Test
+    public void testSharedCause() {
+        final Exception shared = new RuntimeException("shared");
+        final Exception e = new Exception("outer", shared);
+        e.addSuppressed(shared);
+
+        final ExtendedStackTrace decoded = roundTrip(ExtendedStackTrace.of(e));
+        assertEquals(1, decoded.getSuppressed().length);
+        assertSame(decoded.getSuppressed()[0], decoded.getCause());
+        assertEquals("shared", decoded.getCause().getThrowableMessage());
+    }
+
+    @Test
+    public void testCircularCause() {
+        final Exception x = new Exception("x");
+        final Exception y = new Exception("y");
+        x.initCause(y);
+        y.initCause(x);
+
+        final ExtendedStackTrace decoded = roundTrip(ExtendedStackTrace.of(x));
+        assertEquals("y", decoded.getCause().getThrowableMessage());
+        assertSame(decoded, decoded.getCause().getCause());
+        final StringBuilder sb = new StringBuilder();
+        decoded.printStackTrace(sb);
+        assertTrue(sb.toString().contains("[CIRCULAR REFERENCE:"));
+    }
+
+    @Test
+    public void testNestingBound() {
+        Exception e = new Exception("root");
+        for (int i = 0; i < 2000; i++)
+            e = new Exception("wrapper", e);
+        try {
+            ExtendedStackTraceCodec.encode(ExtendedStackTrace.of(e), ByteBuffer.allocate(1 << 24));
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    private static ExtendedStackTrace roundTrip(ExtendedStackTrace st) {
+        final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        ExtendedStackTraceCodec.encode(st, buffer);
+        ((Buffer) buffer).flip();
+        final ExtendedStackTrace decoded = ExtendedStackTraceCodec.decode(buffer);
+        assertFalse(buffer.hasRemaining());
+        return decoded;
+    }
+
+    private static void assertSameTrace(ExtendedStackTrace expected, ExtendedStackTrace actual) {
+        assertEquals(expected.getThrowableClassName(), actual.getThrowableClassName());
+        assertEquals(expected.getThrowableMessage(), actual.getThrowableMessage());
+        final ExtendedStackTraceElement[] es = expected.get();
+        final ExtendedStackTraceElement[] as = actual.get();
+        assertEquals(es.length, as.length);
+        for (int i = 0; i < es.length; i++) {
+            assertEquals(es[i].getClassName(), as[i].getClassName());
+            assertEquals(es[i].getMethodName(), as[i].getMethodName());
+            assertEquals(es[i].getFileName(), as[i].getFileName());
+            assertEquals(es[i].getLineNumber(), as[i].getLineNumber());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.util.Iterator;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the HotSpot backend recognizes the backtrace layout of the running JVM, and reads the same frames as {@link Throwable#getStackTrace()}.
+ *
+ * @author pron
+ */
+public class ExtendedStackTraceHotSpotTest {
+    @Before
+    public void setUp() {
+        final String vmName = System.getProperty("java.vm.name");
+        assumeTrue(vmName.contains("HotSpot") || vmName.contains("OpenJDK"));
+    }
+
+    @Test
+    public void testAvailable() {
+        assertTrue("HotSpot backend unavailable on " + System.getProperty("java.version"), ExtendedStackTrace.HOTSPOT);
+    }
+
+    @Test
+    public void testFrames() {
+        assumeTrue(ExtendedStackTrace.HOTSPOT);
+        final Exception e = deep(2 * 32 + 5); // spans several backtrace chunks
+        final StackTraceElement[] expected = e.getStackTrace();
+        final ExtendedStackTraceElement[] actual = new ExtendedStackTraceHotSpot(e).get();
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].getClassName(), actual[i].getClassName());
+            assertEquals(expected[i].getMethodName(), actual[i].getMethodName());
+            if (actual[i].getDeclaringClass() != null)
+                assertEquals(expected[i].getClassName(), actual[i].getDeclaringClass().getName());
+        }
+        assertEquals(ExtendedStackTraceHotSpotTest.class, actual[0].getDeclaringClass());
+        assertEquals("deep", actual[0].getMethod().getName());
+    }
+
+    @Test
+    public void testLazy() {
+        assumeTrue(ExtendedStackTrace.HOTSPOT);
+        final Exception e = deep(2 * 32 + 5);
+        final ExtendedStackTrace st = new ExtendedStackTraceHotSpot(e);
+
+        final Iterator<ExtendedStackTraceElement> it = st.iterator(0, 1); // as a short-circuiting stream would
+        assertEquals("deep", it.next().getMethodName());
+        assertFalse(it.hasNext());
+        assertFalse("the whole stack trace has been created", ExtendedStackTraceHotSpot.isStackTraceAssigned(e));
+
+        final ExtendedStackTraceElement[] actual = st.get();
+        assertFalse("the whole stack trace has been created", ExtendedStackTraceHotSpot.isStackTraceAssigned(e));
+        final StackTraceElement[] expected = e.getStackTrace();
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            final String frame = expected[i].toString();
+            assertEquals(frame, expected[i].getClassName(), actual[i].getClassName());
+            assertEquals(frame, expected[i].getMethodName(), actual[i].getMethodName());
+            assertEquals(frame, expected[i].getFileName(), actual[i].getFileName());
+            assertEquals(frame, expected[i].getLineNumber(), actual[i].getLineNumber());
+        }
+    }
+
+    private static Exception deep(int depth) {
+        return depth == 0 ? new Exception() : deep(depth - 1);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Captures the stack of a thread parked in a known, overloaded, method.
+ *
+ * @author pron
+ */
+public class ExtendedStackTraceThreadTest {
+    private final CountDownLatch release = new CountDownLatch(1);
+    private Thread parked;
+
+    @Before
+    public void setUp() throws Exception {
+        parked = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                park(release);
+            }
+        }, "parked");
+        parked.start();
+        while (parked.getState() != Thread.State.WAITING || !parkedIn(parked.getStackTrace()))
+            Thread.sleep(10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        parked.join();
+    }
+
+    @Test(timeout = 10000)
+    public void testOf() throws Exception {
+        final ExtendedStackTrace st = ExtendedStackTrace.of(parked);
+        assertParked(st);
+        assertTrue(st.toString(), st.toString().startsWith("\"parked\" WAITING"));
+
+        final StringBuilder sb = new StringBuilder();
+        st.printStackTrace(sb);
+        final String printed = sb.toString();
+        assertTrue(printed, printed.startsWith("\"parked\" WAITING"));
+        assertTrue(printed, printed.contains("\tat co.paralleluniverse.xst.ExtendedStackTraceThreadTest.park(java.util.concurrent.CountDownLatch)"));
+    }
+
+    @Test(timeout = 10000)
+    public void testDumpAllThreads() throws Exception {
+        final Map<Thread, ExtendedStackTrace> dump = ExtendedStackTrace.dumpAllThreads();
+        assertTrue(dump.containsKey(Thread.currentThread()));
+        assertParked(dump.get(parked));
+    }
+
+    @Test(timeout = 10000)
+    public void testDumpThreads() throws Exception {
+        final Thread dead = new Thread(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        dead.start();
+        dead.join();
+
+        final Map<Thread, ExtendedStackTrace> dump = ExtendedStackTrace.dumpThreads(Arrays.asList(parked, dead));
+        assertEquals(1, dump.size());
+        assertParked(dump.get(parked));
+    }
+
+    /**
+     * Checks that the trace contains the {@code park} frame, with its overload resolved.
+     */
+    private static void assertParked(ExtendedStackTrace st) throws Exception {
+        assertNotNull(st);
+        for (ExtendedStackTraceElement e : st.get()) {
+            if (e.getMethodName().equals("park") && e.getClassName().equals(ExtendedStackTraceThreadTest.class.getName())) {
+                assertSame(ExtendedStackTraceThreadTest.class, e.getDeclaringClass());
+                assertEquals(ExtendedStackTraceThreadTest.class.getDeclaredMethod("park", CountDownLatch.class), e.getMethod());
+                return;
+            }
+        }
+        fail(Arrays.toString(st.get()));
+    }
+
+    private static boolean parkedIn(StackTraceElement[] st) {
+        for (StackTraceElement ste : st) {
+            if (ste.getMethodName().equals("park") && ste.getClassName().equals(ExtendedStackTraceThreadTest.class.getName()))
+                return true;
+        }
+        return false;
+    }
+
+    static void park(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static void park(Object o) { // an overload for the frame to be told apart from
+        park(new CountDownLatch(0));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+import org.junit.Test;
+
+/**
+ * Compares captured frames with those of {@link Throwable#getStackTrace()}, captured right after them.
+ *
+ * @author pron
+ */
+public class FrameBufferTest {
+    @Test
+    public void testLines() {
+        final FrameBuffer buf = new FrameBuffer(64);
+        final StackTraceElement[][] expected = new StackTraceElement[1][];
+        final List<Integer> list = new ArrayList<>(Arrays.asList(3, 2, 1));
+        Collections.sort(list, new Comparator<Integer>() { // captures from within JDK frames
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (expected[0] == null) {
+                    ExtendedStackTrace.captureInto(buf, 0);
+                    expected[0] = new Throwable().getStackTrace(); // the line following the capture
+                }
+                return a - b;
+            }
+        });
+
+        final StackTraceElement[] st = expected[0];
+        assertEquals("compare", buf.getMethod(0).getName());
+        final int n = Math.min(buf.size(), st.length);
+        for (int i = 0; i < n; i++) {
+            final int line = i == 0 ? st[i].getLineNumber() - 1 : st[i].getLineNumber();
+            assertEquals(st[i].getClassName(), buf.getDeclaringClass(i).getName());
+            assertEquals(st[i].toString(), st[i].getMethodName(), buf.getElement(i).getMethodName());
+            assertEquals(st[i].toString(), line, buf.getLineNumber(i));
+            assertEquals(st[i].toString(), line, buf.getElement(i).getLineNumber());
+        }
+        assertTrue(n > 4);
+    }
+
+    @Test
+    public void testStaticInitializer() {
+        assumeTrue(ExtendedStackTrace.HOTSPOT);
+        final FrameBuffer buf = Initializer.BUF;
+        assertNull(buf.getMethod(0)); // no Member for a static initializer
+        assertEquals(Initializer.class, buf.getDeclaringClass(0));
+        assertEquals("<clinit>", buf.getElement(0).getMethodName());
+        assertEquals("testStaticInitializer", buf.getElement(1).getMethodName());
+    }
+
+    private static class Initializer {
+        static final FrameBuffer BUF = new FrameBuffer(8);
+
+        static {
+            ExtendedStackTrace.captureInto(BUF, 0);
+        }
+    }
+}
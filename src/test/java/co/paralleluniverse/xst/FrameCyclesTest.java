@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that deep recursion is printed compressed, and that its repeated frames share their elements.
+ *
+ * @author pron
+ */
+public class FrameCyclesTest {
+    private static final int DEPTH = 300;
+
+    @Test
+    public void testRecursion() {
+        final Exception e = recurse(DEPTH);
+        final int frames = count(e, "recurse"); // the top frame creates the exception; the others repeat the recursive call
+        assertEquals(DEPTH + 1, frames);
+
+        final ExtendedStackTrace st = ExtendedStackTrace.of(e);
+        final ExtendedStackTraceElement[] est = st.get();
+        assertNotSame(est[0], est[1]);
+        for (int i = 2; i < frames; i++)
+            assertSame(est[1], est[i]);
+
+        final String printed = print(st);
+        assertTrue(printed, printed.contains("\t... frames 1..1 repeated " + (frames - 2) + " more times"));
+        assertEquals(2, count(printed, "\tat co.paralleluniverse.xst.FrameCyclesTest.recurse"));
+    }
+
+    @Test
+    public void testMutualRecursion() {
+        final Exception e = ping(DEPTH);
+        final int frames = count(e, "ping") + count(e, "pong");
+        assertEquals(DEPTH + 1, frames);
+
+        final ExtendedStackTrace st = ExtendedStackTrace.of(e);
+        final ExtendedStackTraceElement[] est = st.get();
+        for (int i = 3; i < frames; i++)
+            assertSame(est[i - 2], est[i]);
+
+        final String printed = print(st);
+        assertTrue(printed, printed.contains("\t... frames 1..2 repeated " + ((frames - 1) / 2 - 1) + " more times"));
+        assertEquals(2, count(printed, "\tat co.paralleluniverse.xst.FrameCyclesTest.ping"));
+        assertEquals(1, count(printed, "\tat co.paralleluniverse.xst.FrameCyclesTest.pong"));
+    }
+
+    @Test
+    public void testShallow() {
+        final String printed = print(ExtendedStackTrace.of(recurse(FrameCycles.MIN_REPEATS - 1)));
+        assertFalse(printed, printed.contains("repeated"));
+    }
+
+    private static Exception recurse(int depth) {
+        if (depth == 0)
+            return new Exception();
+        return recurse(depth - 1);
+    }
+
+    private static Exception ping(int depth) {
+        if (depth == 0)
+            return new Exception();
+        return pong(depth - 1);
+    }
+
+    private static Exception pong(int depth) {
+        return ping(depth - 1);
+    }
+
+    private static int count(Exception e, String method) {
+        int n = 0;
+        for (StackTraceElement ste : e.getStackTrace()) {
+            if (ste.getMethodName().equals(method))
+                n++;
+        }
+        return n;
+    }
+
+    private static String print(ExtendedStackTrace st) {
+        final StringBuilder sb = new StringBuilder();
+        st.printStackTrace(sb);
+        return sb.toString();
+    }
+
+    private static int count(String s, String sub) {
+        int n = 0;
+        for (int i = s.indexOf(sub); i >= 0; i = s.indexOf(sub, i + 1))
+            n++;
+        return n;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+import org.junit.Test;
+
+/**
+ * Reduces the frames of captured stack traces to raw frames, and symbolizes them back.
+ *
+ * @author pron
+ */
+public class FrameSymbolizerTest {
+    private final FrameSymbolizer symbolizer = new FrameSymbolizer(FrameSymbolizerTest.class.getClassLoader());
+
+    @Test
+    public void testRoundTrip() {
+        assumeTrue(ExtendedStackTrace.HOTSPOT); // bytecode indexes are known
+        final List<ExtendedStackTraceElement> resolved = new ArrayList<>();
+        for (ExtendedStackTraceElement e : new Overloads().capture(0)) {
+            if (e.getMethod() != null && e.getBytecodeIndex() >= 0)
+                resolved.add(e);
+        }
+        assertTrue(resolved.size() > 2);
+
+        final int n = resolved.size();
+        final String[] classNames = new String[n];
+        final String[] methodNames = new String[n];
+        final String[] descriptors = new String[n];
+        final int[] bcis = new int[n];
+        for (int i = 0; i < n; i++) {
+            final ExtendedStackTraceElement e = resolved.get(i);
+            classNames[i] = e.getDeclaringClass().getName().replace('.', '/');
+            methodNames[i] = e.getMethodName();
+            descriptors[i] = e.getMethodDescriptor();
+            bcis[i] = e.getBytecodeIndex();
+        }
+
+        final ExtendedStackTraceElement[] symbolized = symbolizer.symbolize(classNames, methodNames, descriptors, bcis);
+        for (int i = 0; i < n; i++) {
+            final ExtendedStackTraceElement expected = resolved.get(i);
+            final ExtendedStackTraceElement actual = symbolized[i];
+            assertSame(expected.getDeclaringClass(), actual.getDeclaringClass());
+            assertEquals(expected.getClassName(), actual.getClassName());
+            assertEquals(expected.getMethod(), actual.getMethod());
+            assertEquals(expected.getMethodDescriptor(), actual.getMethodDescriptor());
+            assertEquals(expected.getFileName(), actual.getFileName());
+            assertEquals(expected.toString(), expected.getLineNumber(), actual.getLineNumber());
+            assertEquals(expected.getBytecodeIndex(), actual.getBytecodeIndex());
+            assertEquals(expected.toString(), actual.toString());
+        }
+    }
+
+    @Test
+    public void testOverloads() throws Exception {
+        final ExtendedStackTraceElement e = symbolizer.symbolize(Overloads.class.getName(), "capture", "(Ljava/lang/String;)[Lco/paralleluniverse/xst/ExtendedStackTraceElement;", 0);
+        assertEquals(Overloads.class.getDeclaredMethod("capture", String.class), e.getMethod());
+        assertEquals("FrameSymbolizerTest.java", e.getFileName());
+        assertTrue(e.getLineNumber() > 0);
+    }
+
+    @Test
+    public void testNative() throws Exception {
+        final ExtendedStackTraceElement e = symbolizer.symbolize("java/lang/Object", "hashCode", null, -1);
+        assertEquals(Object.class.getMethod("hashCode"), e.getMethod());
+        assertTrue(e.isNativeMethod());
+        assertEquals("()I", e.getMethodDescriptor());
+    }
+
+    @Test
+    public void testUnknownClass() {
+        final ExtendedStackTraceElement e = symbolizer.symbolize("no/such/Class", "foo", "()V", 3);
+        assertEquals("no.such.Class", e.getClassName());
+        assertEquals("foo", e.getMethodName());
+        assertNull(e.getDeclaringClass());
+        assertNull(e.getMethod());
+        assertEquals(-1, e.getLineNumber());
+        assertEquals(3, e.getBytecodeIndex());
+    }
+
+    private static class Overloads {
+        ExtendedStackTraceElement[] capture(int x) {
+            return capture("x");
+        }
+
+        ExtendedStackTraceElement[] capture(String x) {
+            return ExtendedStackTrace.here().get();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tracks resources that are dropped with and without being closed, and waits for the garbage collector to find them.
+ *
+ * @author pron
+ */
+public class LeakTrackerTest {
+    private final List<LeakTracker.Site> leaks = new CopyOnWriteArrayList<>();
+    private LeakTracker tracker;
+
+    @Before
+    public void setUp() {
+        tracker = new LeakTracker(CaptureSampler.everyNth(1), new LeakTracker.Listener() {
+            @Override
+            public void leaked(LeakTracker.Site site) {
+                leaks.add(site);
+            }
+        });
+    }
+
+    @Test
+    public void testLeak() throws Exception {
+        allocateLeaking();
+        awaitCollection(1);
+        assertEquals(1, leaks.size());
+
+        final LeakTracker.Site site = leaks.get(0);
+        assertEquals(1, site.getTrackedCount());
+        assertEquals(0, site.getClosedCount());
+        assertEquals(1, site.getLeakedCount());
+        assertEquals("<init>", site.getAllocationFrame().getMethodName());
+        assertEquals(Resource.class.getName(), site.getAllocationFrame().getClassName());
+        assertEquals("allocateLeaking", site.getStackTrace().get()[1].getMethodName());
+    }
+
+    @Test
+    public void testClosed() throws Exception {
+        allocateClosed();
+        allocateLeaking(); // a leak to wait for
+        awaitCollection(1);
+        assertEquals(1, leaks.size());
+        assertEquals("allocateLeaking", leaks.get(0).getStackTrace().get()[1].getMethodName());
+
+        assertEquals(2, tracker.getSites().size());
+        for (LeakTracker.Site site : tracker.getSites()) {
+            if (site != leaks.get(0)) {
+                assertEquals(1, site.getClosedCount());
+                assertEquals(0, site.getLeakedCount());
+            }
+        }
+    }
+
+    @Test
+    public void testSharedSite() throws Exception {
+        for (int i = 0; i < 3; i++)
+            allocateLeaking();
+        awaitCollection(3);
+        assertEquals(1, tracker.getSites().size());
+        assertEquals(3, tracker.getSites().get(0).getTrackedCount());
+        assertEquals(3, tracker.getSites().get(0).getLeakedCount());
+    }
+
+    private void allocateLeaking() {
+        new Resource(tracker);
+    }
+
+    private void allocateClosed() {
+        new Resource(tracker).close();
+    }
+
+    private void awaitCollection(int n) throws InterruptedException {
+        for (int i = 0; i < 500 && leaks.size() < n; i++) {
+            System.gc();
+            Thread.sleep(10);
+            tracker.poll();
+        }
+    }
+
+    private static class Resource {
+        private final LeakTracker.Handle handle;
+
+        Resource(LeakTracker tracker) {
+            this.handle = tracker.track(this);
+        }
+
+        void close() {
+            handle.close();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Caches the line indexes of class files kept in a temporary directory, and of JDK classes.
+ *
+ * @author pron
+ */
+public class LineIndexCacheTest {
+    private static final String CLASS_NAME = "co.paralleluniverse.xst.LineIndexTest";
+    private File dir;
+    private File classFile;
+    private File cacheFile;
+    private ClassLoader loader;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("xst", "");
+        dir.delete();
+        classFile = new File(dir, CLASS_NAME.replace('.', '/') + ".class");
+        classFile.getParentFile().mkdirs();
+        cacheFile = new File(dir, "cache");
+        loader = new URLClassLoader(new URL[]{dir.toURI().toURL()}, null); // only finds the copied class file
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        writeClassFile(LineIndexTest.class, 1000000000000L);
+        try (LineIndexCache cache = new LineIndexCache(cacheFile, 1 << 20)) {
+            final LineIndex li = cache.get(CLASS_NAME, loader);
+            assertEquals("LineIndexTest.java", li.sourceFile);
+
+            // an unchanged stamp finds the entry without reading the class file
+            final byte[] garbage = new byte[(int) classFile.length()];
+            write(classFile, garbage, 1000000000000L);
+            assertSameIndex(li, cache.get(CLASS_NAME, loader));
+        }
+        try (LineIndexCache cache = new LineIndexCache(cacheFile, 1 << 20)) {
+            assertEquals("LineIndexTest.java", cache.get(CLASS_NAME, loader).sourceFile); // persisted
+        }
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        writeClassFile(LineIndexTest.class, 1000000000000L);
+        try (LineIndexCache cache = new LineIndexCache(cacheFile, 1 << 20)) {
+            assertEquals("LineIndexTest.java", cache.get(CLASS_NAME, loader).sourceFile);
+            writeClassFile(FrameBufferTest.class, 2000000000000L);
+            assertEquals("FrameBufferTest.java", cache.get(CLASS_NAME, loader).sourceFile);
+        }
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final List<String> classNames = Arrays.asList(
+                "java.lang.String", "java.lang.Integer", "java.lang.Long", "java.lang.Thread", "java.lang.ClassLoader",
+                "java.util.ArrayList", "java.util.HashMap", "java.util.TreeMap", "java.util.LinkedList", "java.util.Collections",
+                "java.util.Arrays", "java.util.concurrent.ConcurrentHashMap", "java.util.concurrent.ThreadPoolExecutor",
+                "java.util.concurrent.FutureTask", "java.io.File", "java.io.PrintStream");
+        final ClassLoader system = ClassLoader.getSystemClassLoader();
+        final LineIndexCache[] caches = {new LineIndexCache(cacheFile, 1 << 20), new LineIndexCache(cacheFile, 1 << 20)};
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<LineIndex>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                final LineIndexCache cache = caches[i % caches.length];
+                for (final String className : classNames) {
+                    results.add(executor.submit(new Callable<LineIndex>() {
+                        @Override
+                        public LineIndex call() throws IOException {
+                            return cache.get(className, system);
+                        }
+                    }));
+                }
+            }
+            for (int i = 0; i < results.size(); i++) {
+                final String className = classNames.get(i % classNames.size());
+                assertSameIndex(LineIndex.read(system.getResourceAsStream(className.replace('.', '/') + ".class")), results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+            for (LineIndexCache cache : caches)
+                cache.close();
+        }
+        try (LineIndexCache cache = new LineIndexCache(cacheFile, 1 << 20)) {
+            for (String className : classNames)
+                assertNotNull(className, cache.get(className, system).sourceFile);
+        }
+    }
+
+    private static void assertSameIndex(LineIndex expected, LineIndex actual) {
+        assertEquals(expected.sourceFile, actual.sourceFile);
+        assertArrayEquals(expected.names, actual.names);
+        assertArrayEquals(expected.descriptors, actual.descriptors);
+        assertEquals(expected.lines.length, actual.lines.length);
+        for (int i = 0; i < expected.lines.length; i++)
+            assertArrayEquals(expected.lines[i], actual.lines[i]);
+    }
+
+    private void writeClassFile(Class<?> clazz, long modified) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream is = clazz.getResourceAsStream(clazz.getSimpleName() + ".class")) {
+            final byte[] buf = new byte[8192];
+            for (int n; (n = is.read(buf)) > 0;)
+                bytes.write(buf, 0, n);
+        }
+        write(classFile, bytes.toByteArray(), modified);
+    }
+
+    private static void write(File file, byte[] bytes, long modified) throws IOException {
+        try (FileOutputStream os = new FileOutputStream(file)) {
+            os.write(bytes);
+        }
+        assertTrue(file.setLastModified(modified));
+    }
+
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files)
+                delete(f);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+import org.junit.Test;
+
+/**
+ * Checks line indexes against the lines reported by the JVM, for classes of the running JDK (whose class files are of its own version)
+ * as well as for this test.
+ *
+ * @author pron
+ */
+public class LineIndexTest {
+    @Test
+    public void testSourceFile() {
+        assertEquals("LineIndexTest.java", MethodIndex.of(LineIndexTest.class).getLineIndex().sourceFile);
+        assertEquals("String.java", MethodIndex.of(String.class).getLineIndex().sourceFile);
+    }
+
+    @Test
+    public void testLines() {
+        assumeTrue(ExtendedStackTrace.HOTSPOT);
+        Exception e = null;
+        try {
+            Integer.parseInt("not a number");
+        } catch (NumberFormatException ex) {
+            e = ex;
+        }
+        final StackTraceElement[] expected = e.getStackTrace();
+        final ExtendedStackTraceElement[] actual = new ExtendedStackTraceHotSpot(e).get();
+        int checked = 0;
+        for (int i = 0; i < actual.length; i++) {
+            final ExtendedStackTraceElement x = actual[i];
+            if (x.getDeclaringClass() == null || x.getMethod() == null || x.getBytecodeIndex() < 0 || expected[i].getLineNumber() < 0)
+                continue;
+            final LineIndex li = MethodIndex.of(x.getDeclaringClass()).getLineIndex();
+            assertEquals(x.toString(), expected[i].getLineNumber(), li.getLineNumber(x.getMethodName(), x.getMethodDescriptor(), x.getBytecodeIndex()));
+            checked++;
+        }
+        assertTrue(checked >= 3); // NumberFormatException, Integer and this test
+    }
+}
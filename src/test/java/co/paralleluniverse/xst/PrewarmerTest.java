@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that the future returned by prewarming completes, whether or not the executor runs the indexing tasks.
+ *
+ * @author pron
+ */
+public class PrewarmerTest {
+    private static final Collection<Class<?>> CLASSES = Arrays.<Class<?>>asList(String.class, Integer.class, PrewarmerTest.class);
+
+    @Test
+    public void testIndexed() throws Exception {
+        final Future<Integer> f = ExtendedStackTrace.prewarm(CLASSES, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new Thread(command).start();
+            }
+        });
+        assertEquals(CLASSES.size(), (int) f.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        final Future<Integer> f = ExtendedStackTrace.prewarm(CLASSES, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        try {
+            f.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void testPartlyRejected() throws Exception {
+        final AtomicInteger accepted = new AtomicInteger();
+        final Future<Integer> f = ExtendedStackTrace.prewarm(CLASSES, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (accepted.getAndIncrement() > 0)
+                    throw new RejectedExecutionException();
+                command.run();
+            }
+        });
+        assertEquals(CLASSES.size(), (int) f.get(10, TimeUnit.SECONDS)); // the one worker indexes all classes
+    }
+
+    @Test
+    public void testPackagesRejected() throws Exception {
+        final Future<Integer> f = ExtendedStackTrace.prewarm(null, Arrays.asList("co.paralleluniverse.xst"), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        try {
+            f.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+}
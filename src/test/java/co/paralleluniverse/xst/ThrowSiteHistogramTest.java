@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are licensed under
+ * GNU General Public License, version 2, with the Classpath Exception
+ *
+ * http://openjdk.java.net/legal/gplv2+ce.html
+ */
+package co.paralleluniverse.xst;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Records exceptions created at a dozen distinct sites, from a single thread and from many.
+ *
+ * @author pron
+ */
+public class ThrowSiteHistogramTest {
+    private static final int SITES = 12;
+
+    @Test
+    public void testTop() {
+        final ThrowSiteHistogram histogram = new ThrowSiteHistogram();
+        final Exception[] first = exceptions();
+        for (int i = 0; i < SITES; i++)
+            histogram.record(first[i]);
+        for (int n = 1; n < 5; n++) {
+            final Exception[] es = exceptions();
+            for (int i = 0; i < n; i++)
+                histogram.record(es[i]); // site i is recorded 5 - i times
+        }
+
+        final List<ThrowSiteHistogram.Site> top = histogram.top(3);
+        assertEquals(3, top.size());
+        final Set<Integer> bcis = new HashSet<>(); // the sites' lines may all be the same, as javac attributes the array initializer to its first line
+        for (int i = 0; i < top.size(); i++) {
+            final ThrowSiteHistogram.Site site = top.get(i);
+            assertEquals(5 - i, site.getCount());
+            assertSame(first[i], site.getSample());
+            assertEquals(ThrowSiteHistogramTest.class.getName(), site.getClassName());
+            assertEquals("exceptions", site.getMethodName());
+            assertEquals(first[i].getStackTrace()[0].getLineNumber(), site.getLineNumber());
+            bcis.add(site.getBytecodeIndex());
+        }
+        if (ExtendedStackTrace.HOTSPOT)
+            assertEquals(3, bcis.size());
+        assertEquals(SITES, histogram.top(SITES + 1).size());
+        assertEquals(SITES, histogram.getSites().size());
+    }
+
+    @Test
+    public void testReset() {
+        final ThrowSiteHistogram histogram = new ThrowSiteHistogram();
+        histogram.record(exceptions()[0]);
+        histogram.reset();
+        assertTrue(histogram.getSites().isEmpty());
+        histogram.record(exceptions()[0]);
+        assertEquals(1, histogram.top(1).get(0).getCount());
+    }
+
+    @Test
+    public void testSingleStripe() throws Exception {
+        testConcurrent(new ThrowSiteHistogram(1)); // all sites collide in one stripe, which must grow to hold them
+    }
+
+    @Test
+    public void testStriped() throws Exception {
+        testConcurrent(new ThrowSiteHistogram(8));
+    }
+
+    private static void testConcurrent(final ThrowSiteHistogram histogram) throws Exception {
+        final int iterations = 1000;
+        final Thread[] threads = new Thread[8];
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    for (int j = 0; j < iterations; j++) {
+                        for (Exception e : exceptions())
+                            histogram.record(e);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+
+        final List<ThrowSiteHistogram.Site> sites = histogram.getSites();
+        assertEquals(SITES, sites.size());
+        for (ThrowSiteHistogram.Site site : sites)
+            assertEquals(threads.length * iterations, site.getCount());
+    }
+
+    /**
+     * Returns an exception created at each of the {@value #SITES} sites.
+     */
+    private static Exception[] exceptions() {
+        return new Exception[]{
+            new Exception(),
+            new Exception(),
+            new Exception(),
+            new Exception(),
+            new Exception(),
+            new Exception(),
+            new Exception(),
+            new Exception(),
+            new Exception(),
+            new Exception(),
+            new Exception(),
+            new Exception()
+        };
+    }
+}